@@ -0,0 +1,544 @@
+package com.aidanogrady.qgrady;
+
+import com.aidanogrady.qgrady.exceptions.SignallingException;
+import com.aidanogrady.qgrady.storage.DenseDistribution;
+import com.aidanogrady.qgrady.storage.Distribution;
+import com.aidanogrady.qgrady.storage.ExactDistribution;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The AnalysisCache keeps the results of semantic analysis on disk, so that a
+ * box that has been compiled before need not be analysed again.
+ *
+ * Entries are addressed by a SHA-256 hash of the contents of the box, taken
+ * together with the version of the compiler, the format of the cache and the
+ * options that change the analysis. Any change to any of these gives a new
+ * key, so a stale entry can never be found. Each entry also records its key,
+ * and an entry whose key does not match, or that cannot be read in full, is
+ * deleted and treated as missing.
+ *
+ * Alongside the verdict of each check, an entry holds the marginals of the
+ * box found during generation, which are given to the box on a hit so that
+ * generation need not find them again.
+ *
+ * The cache is bounded in size. Entries are written to a temporary file and
+ * moved into place, and are touched whenever they are read, so that once the
+ * cache grows too large the entries used least recently can be removed. An
+ * entry that would not fit within the bound on its own is never written.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class AnalysisCache {
+
+    /**
+     * The version of the format of entries, to be raised with every change
+     * to it or to the analysis.
+     */
+    public static final int FORMAT = 2;
+
+    /**
+     * The default bound on the size of the cache, in bytes.
+     */
+    public static final long DEFAULT_LIMIT = 256L << 20;
+
+    /**
+     * The number every entry begins with.
+     */
+    private static final int MAGIC = 0x51475243;
+
+    /**
+     * The mark recorded for a box whose locality has not been checked.
+     */
+    private static final byte UNKNOWN = 0;
+
+    /**
+     * The mark recorded for a local box.
+     */
+    private static final byte LOCAL = 1;
+
+    /**
+     * The mark recorded for a non-local box.
+     */
+    private static final byte NON_LOCAL = 2;
+
+    /**
+     * The extension of entries.
+     */
+    private static final String EXTENSION = ".entry";
+
+    /**
+     * The directory holding the entries.
+     */
+    private final File dir;
+
+    /**
+     * The bound on the size of the cache, in bytes.
+     */
+    private final long limit;
+
+    /**
+     * Constructs a new cache in the given directory.
+     *
+     * @param dir  the directory holding the entries.
+     * @param limit  the bound on the size of the cache, in bytes.
+     */
+    public AnalysisCache(File dir, long limit) {
+        this.dir = dir;
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the key of the analysis of the given box.
+     *
+     * @param box  the box being analysed.
+     * @param groups  whether every group of parties is checked for signalling.
+     * @return key
+     */
+    public static String key(Box box, boolean groups) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(QGrady.VERSION);
+            out.writeInt(FORMAT);
+            out.writeBoolean(groups);
+            out.writeBoolean(
+                    box.getDistribution() instanceof ExactDistribution);
+            out.writeInt(box.getInputRange());
+            out.writeInt(box.getOutputRange());
+            writeNames(out, box.getInputs());
+            writeNames(out, box.getOutputs());
+            out.writeInt(box.getRows());
+            out.flush();
+            digest.update(bytes.toByteArray());
+
+            // Rows are fed to the digest one at a time, rather than being
+            // held in memory all at once.
+            Distribution probs = box.getDistribution();
+            for (int i = 0; i < probs.getRows(); i++) {
+                bytes.reset();
+                out.writeInt(probs.getRowLength(i));
+                for (int j = 0; j < probs.getRowLength(i); j++) {
+                    out.writeDouble(probs.get(i, j));
+                }
+                out.flush();
+                digest.update(bytes.toByteArray());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Writes the given list of names, along with its size.
+     *
+     * @param out  the stream being written to.
+     * @param names  the names being written.
+     * @throws IOException
+     */
+    private static void writeNames(DataOutputStream out, List<String> names)
+            throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * Returns the analysis stored under the given key, or null if there is
+     * none. Any marginals stored with it are given to the given box.
+     *
+     * @param key  the key of the analysis.
+     * @param box  the box the analysis is of.
+     * @return analysis, or null
+     */
+    public Analysis get(String key, Box box) {
+        File file = new File(dir, key + EXTENSION);
+        if (!file.isFile())
+            return null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT
+                    || !in.readUTF().equals(key))
+                throw new IOException("Entry does not match its key");
+            Analysis analysis = new Analysis();
+            if (in.readBoolean())
+                analysis.variableError = in.readUTF();
+            int errors = in.readInt();
+            for (int i = 0; i < errors; i++) {
+                analysis.errors.add(in.readUTF());
+            }
+            if (in.readBoolean()) {
+                String msg = in.readUTF();
+                analysis.signalling = new SignallingException(msg,
+                        in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            }
+            byte local = in.readByte();
+            if (local != UNKNOWN)
+                analysis.local = local == LOCAL;
+
+            int marginals = in.readInt();
+            int all = (1 << box.getNoOfInputs()) - 1;
+            if (marginals < 0 || marginals > all)
+                throw new IOException("Entry holds too many marginals");
+            int[] masks = new int[marginals];
+            Distribution[] tables = new Distribution[marginals];
+            for (int i = 0; i < marginals; i++) {
+                masks[i] = in.readInt();
+                int rows = in.readInt();
+                int width = in.readInt();
+                // Sizes are checked against the box before anything is
+                // allocated, so a damaged entry cannot ask for too much.
+                if (masks[i] < 0 || masks[i] >= all
+                        || rows != marginalRows(box, masks[i])
+                        || width != marginalWidth(box, masks[i]))
+                    throw new IOException("Entry holds a damaged marginal");
+                double[] data = new double[rows * width];
+                for (int j = 0; j < data.length; j++) {
+                    data[j] = in.readDouble();
+                }
+                tables[i] = new DenseDistribution(data, rows, width);
+            }
+            for (int i = 0; i < marginals; i++) {
+                box.setMarginal(masks[i], tables[i]);
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return analysis;
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of rows of the marginal of the given group of
+     * parties of the given box.
+     *
+     * @param box  the box whose marginal is examined.
+     * @param mask  the bitmask of the group of parties.
+     * @return rows, or -1 if there are too many to hold
+     */
+    private static int marginalRows(Box box, int mask) {
+        return power(box.getInputRange(), Integer.bitCount(mask));
+    }
+
+    /**
+     * Returns the number of columns of the marginal of the given group of
+     * parties of the given box.
+     *
+     * @param box  the box whose marginal is examined.
+     * @param mask  the bitmask of the group of parties.
+     * @return columns, or -1 if there are too many to hold
+     */
+    private static int marginalWidth(Box box, int mask) {
+        return power(box.getOutputRange(), Integer.bitCount(mask));
+    }
+
+    /**
+     * Returns the given base raised to the given power, or -1 should it be
+     * too large for an array.
+     *
+     * @param base  the base being raised.
+     * @param exponent  the power it is raised to.
+     * @return power, or -1
+     */
+    private static int power(int base, int exponent) {
+        long power = 1;
+        for (int i = 0; i < exponent; i++) {
+            power *= base;
+            if (power > Integer.MAX_VALUE)
+                return -1;
+        }
+        return (int) power;
+    }
+
+    /**
+     * Returns the groups of parties of the given box whose marginals have
+     * been found, by bitmask.
+     *
+     * @param box  the box being examined.
+     * @return masks
+     */
+    static List<Integer> knownMarginals(Box box) {
+        List<Integer> masks = new ArrayList<>();
+        for (int mask = 0; mask < 1 << box.getNoOfInputs(); mask++) {
+            if (box.knownMarginal(mask) != null)
+                masks.add(mask);
+        }
+        return masks;
+    }
+
+    /**
+     * Stores the given analysis under the given key, along with whichever
+     * marginals of the given box have been found, then removes the entries
+     * used least recently until the cache is back within its bound. An entry
+     * larger than the bound is not stored at all, as it would only be removed
+     * straight away. Failing to store an entry only means it will be missed,
+     * so is not an error.
+     *
+     * @param key  the key of the analysis.
+     * @param analysis  the analysis being stored.
+     * @param box  the box the analysis is of.
+     */
+    public void put(String key, Analysis analysis, Box box) {
+        // The verdicts are small, so are put together first, and the size of
+        // the marginals is worked out, so that an entry too large to keep is
+        // never written.
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(head)) {
+            writeAnalysis(out, key, analysis);
+        } catch (IOException e) {
+            System.err.println("Could not cache analysis: " + e.getMessage());
+            return;
+        }
+        List<Integer> masks = knownMarginals(box);
+        long size = head.size() + 4;
+        for (int mask : masks) {
+            size += 12 + 8L * box.knownMarginal(mask).getRows()
+                    * width(box.knownMarginal(mask));
+        }
+        if (size > limit)
+            return;
+
+        File temp = null;
+        try {
+            Files.createDirectories(dir.toPath());
+            temp = File.createTempFile(key, ".tmp", dir);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)))) {
+                head.writeTo(out);
+                writeMarginals(out, box, masks);
+            }
+            Files.move(temp.toPath(), new File(dir, key + EXTENSION).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+            evict();
+        } catch (IOException e) {
+            System.err.println("Could not cache analysis: " + e.getMessage());
+        } finally {
+            if (temp != null)
+                temp.delete();
+        }
+    }
+
+    /**
+     * Writes the key and verdicts of the given analysis.
+     *
+     * @param out  the stream being written to.
+     * @param key  the key of the analysis.
+     * @param analysis  the analysis being written.
+     * @throws IOException
+     */
+    private static void writeAnalysis(DataOutputStream out, String key,
+                                      Analysis analysis) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeUTF(key);
+        out.writeBoolean(analysis.variableError != null);
+        if (analysis.variableError != null)
+            out.writeUTF(analysis.variableError);
+        out.writeInt(analysis.errors.size());
+        for (String error : analysis.errors) {
+            out.writeUTF(error);
+        }
+        SignallingException e = analysis.signalling;
+        out.writeBoolean(e != null);
+        if (e != null) {
+            out.writeUTF(e.getMessage());
+            out.writeInt(e.getParty());
+            out.writeInt(e.getGroup());
+            out.writeInt(e.getRow());
+            out.writeInt(e.getOtherRow());
+        }
+        Boolean local = analysis.local;
+        out.writeByte(local == null ? UNKNOWN : local ? LOCAL : NON_LOCAL);
+    }
+
+    /**
+     * Writes the marginals of the given groups of parties of the given box.
+     *
+     * @param out  the stream being written to.
+     * @param box  the box whose marginals are written.
+     * @param masks  the bitmasks of the groups, each of whose marginals has
+     *               been found.
+     * @throws IOException
+     */
+    private static void writeMarginals(DataOutputStream out, Box box,
+                                       List<Integer> masks) throws IOException {
+        out.writeInt(masks.size());
+        for (int mask : masks) {
+            Distribution marginal = box.knownMarginal(mask);
+            int width = width(marginal);
+            out.writeInt(mask);
+            out.writeInt(marginal.getRows());
+            out.writeInt(width);
+            for (int i = 0; i < marginal.getRows(); i++) {
+                for (int j = 0; j < width; j++) {
+                    out.writeDouble(j < marginal.getRowLength(i)
+                            ? marginal.get(i, j) : 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the longest row of the given marginal.
+     *
+     * @param marginal  the marginal being examined.
+     * @return width
+     */
+    private static int width(Distribution marginal) {
+        int width = 0;
+        for (int i = 0; i < marginal.getRows(); i++) {
+            width = Math.max(width, marginal.getRowLength(i));
+        }
+        return width;
+    }
+
+    /**
+     * Removes the entries used least recently until the cache is within its
+     * bound.
+     */
+    private void evict() {
+        File[] entries = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+        if (entries == null)
+            return;
+        long size = 0;
+        for (File entry : entries) {
+            size += entry.length();
+        }
+        if (size <= limit)
+            return;
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            if (size <= limit)
+                break;
+            long length = entry.length();
+            if (entry.delete())
+                size -= length;
+        }
+    }
+
+    /**
+     * The results of the semantic analysis of a box.
+     */
+    public static class Analysis {
+
+        /**
+         * The message of the problem with the variables, or null if there is
+         * none.
+         */
+        private String variableError;
+
+        /**
+         * The problems with the distribution.
+         */
+        private final List<String> errors = new ArrayList<>();
+
+        /**
+         * The signalling found, or null if there is none.
+         */
+        private SignallingException signalling;
+
+        /**
+         * Whether the box is local, or null if it has not been checked.
+         */
+        private Boolean local;
+
+        /**
+         * Returns the message of the problem with the variables, or null if
+         * there is none.
+         *
+         * @return variable error
+         */
+        public String getVariableError() {
+            return variableError;
+        }
+
+        /**
+         * Sets the message of the problem with the variables.
+         *
+         * @param variableError  the message of the problem.
+         */
+        public void setVariableError(String variableError) {
+            this.variableError = variableError;
+        }
+
+        /**
+         * Returns the problems with the distribution.
+         *
+         * @return errors
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        /**
+         * Returns the signalling found, or null if there is none.
+         *
+         * @return signalling
+         */
+        public SignallingException getSignalling() {
+            return signalling;
+        }
+
+        /**
+         * Sets the signalling found.
+         *
+         * @param signalling  the signalling found.
+         */
+        public void setSignalling(SignallingException signalling) {
+            this.signalling = signalling;
+        }
+
+        /**
+         * Returns whether the box is local, or null if it has not been
+         * checked.
+         *
+         * @return local
+         */
+        public Boolean getLocal() {
+            return local;
+        }
+
+        /**
+         * Sets whether the box is local.
+         *
+         * @param local  whether the box is local.
+         */
+        public void setLocal(Boolean local) {
+            this.local = local;
+        }
+
+        /**
+         * Returns whether the box passed every check.
+         *
+         * @return true if the box is valid.
+         */
+        public boolean isValid() {
+            return variableError == null && errors.isEmpty()
+                    && signalling == null;
+        }
+    }
+}
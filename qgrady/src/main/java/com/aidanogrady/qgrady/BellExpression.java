@@ -0,0 +1,317 @@
+package com.aidanogrady.qgrady;
+
+import com.aidanogrady.qgrady.kernel.Kernel;
+import com.aidanogrady.qgrady.kernel.Kernels;
+import com.aidanogrady.qgrady.storage.Distribution;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
+
+/**
+ * A BellExpression is a linear expression over the probabilities p(out|in)
+ * of a non-local box, such as the CHSH or Mermin expressions, whose value
+ * tells how far a box is from being local.
+ *
+ * The expression is compiled as it is built into an array of coefficients
+ * laid out exactly as the distribution of a box is, a row for every input and
+ * a column for every output. Evaluating it against a box is then a single
+ * sweep taking the dot product of each row with its coefficients, visiting
+ * only the rows with a coefficient that is not zero.
+ *
+ * An expression is only ever read once built, so many boxes may be evaluated
+ * against it at once.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class BellExpression {
+
+    /**
+     * The number of boxes below which a batch is evaluated on one thread.
+     */
+    private static final int THRESHOLD = 16;
+
+    /**
+     * The number of parties of the boxes the expression is over.
+     */
+    private final int parties;
+
+    /**
+     * The range from 0 of the input values.
+     */
+    private final int inputRange;
+
+    /**
+     * The range from 0 of the output values.
+     */
+    private final int outputRange;
+
+    /**
+     * The number of columns of each row, outputRange^parties.
+     */
+    private final int columns;
+
+    /**
+     * The coefficient of each probability, row by row.
+     */
+    private final double[] coefficients;
+
+    /**
+     * Whether each row has a coefficient that is not zero.
+     */
+    private final boolean[] active;
+
+    /**
+     * Constructs a new expression, with every coefficient zero, over boxes of
+     * the given number of parties and ranges.
+     *
+     * @param parties  the number of parties.
+     * @param inputRange  the range from 0 of the input values.
+     * @param outputRange  the range from 0 of the output values.
+     */
+    public BellExpression(int parties, int inputRange, int outputRange) {
+        this.parties = parties;
+        this.inputRange = inputRange;
+        this.outputRange = outputRange;
+        int rows = (int) Math.pow(inputRange, parties);
+        columns = (int) Math.pow(outputRange, parties);
+        coefficients = new double[rows * columns];
+        active = new boolean[rows];
+    }
+
+    /**
+     * Returns the CHSH expression, E(0,0) + E(0,1) + E(1,0) - E(1,1), which is
+     * at most 2 for local boxes and 4 for the PR box.
+     *
+     * @return CHSH expression
+     */
+    public static BellExpression chsh() {
+        return new BellExpression(2, 2, 2)
+                .addCorrelator(1, new int[] {0, 0})
+                .addCorrelator(1, new int[] {0, 1})
+                .addCorrelator(1, new int[] {1, 0})
+                .addCorrelator(-1, new int[] {1, 1});
+    }
+
+    /**
+     * Returns the Mermin expression over three parties,
+     * E(1,0,0) + E(0,1,0) + E(0,0,1) - E(1,1,1), which is at most 2 for local
+     * boxes and 4 for the strongest non-signalling boxes.
+     *
+     * @return Mermin expression
+     */
+    public static BellExpression mermin() {
+        return new BellExpression(3, 2, 2)
+                .addCorrelator(1, new int[] {1, 0, 0})
+                .addCorrelator(1, new int[] {0, 1, 0})
+                .addCorrelator(1, new int[] {0, 0, 1})
+                .addCorrelator(-1, new int[] {1, 1, 1});
+    }
+
+    /**
+     * Adds the given multiple of p(output|input) to the expression.
+     *
+     * @param coefficient  the multiple being added.
+     * @param input  the value of each input.
+     * @param output  the value of each output.
+     * @return this expression
+     */
+    public BellExpression add(double coefficient, int[] input, int[] output) {
+        int row = index(input, inputRange);
+        int column = index(output, outputRange);
+        coefficients[row * columns + column] += coefficient;
+        active[row] = true;
+        return this;
+    }
+
+    /**
+     * Adds the given multiple of the correlator of the given inputs to the
+     * expression, being the probability that the outputs have an even number
+     * of ones less the probability that they have an odd number. Correlators
+     * are only defined for binary outputs.
+     *
+     * @param coefficient  the multiple being added.
+     * @param input  the value of each input.
+     * @return this expression
+     */
+    public BellExpression addCorrelator(double coefficient, int[] input) {
+        if (outputRange != 2)
+            throw new IllegalArgumentException(
+                    "Correlators need binary outputs, not " + outputRange);
+        int row = index(input, inputRange);
+        for (int column = 0; column < columns; column++) {
+            double sign = Integer.bitCount(column) % 2 == 0 ? 1 : -1;
+            coefficients[row * columns + column] += sign * coefficient;
+        }
+        active[row] = true;
+        return this;
+    }
+
+    /**
+     * Returns the index of the given values in the given range, checking that
+     * there is a value for every party and that each is within the range.
+     *
+     * @param values  the value for each party.
+     * @param range  the range from 0 of the values.
+     * @return index
+     */
+    private int index(int[] values, int range) {
+        if (values.length != parties)
+            throw new IllegalArgumentException("Expected " + parties
+                    + " values, not " + values.length);
+        for (int value : values) {
+            if (value < 0 || value >= range)
+                throw new IllegalArgumentException(value
+                        + " is not within range " + range);
+        }
+        return Box.arrayToInt(values, range);
+    }
+
+    /**
+     * Returns the value of the expression for the given box.
+     *
+     * @param box  the box being evaluated.
+     * @return value
+     */
+    public double evaluate(Box box) {
+        if (box.getNoOfInputs() != parties || box.getInputRange() != inputRange
+                || box.getOutputRange() != outputRange)
+            throw new IllegalArgumentException("Box does not match expression");
+
+        Kernel kernel = Kernels.get();
+        Distribution probs = box.getDistribution();
+        double value = 0;
+        int rows = Math.min(active.length, probs.getRows());
+        for (int row = 0; row < rows; row++) {
+            if (!active[row])
+                continue;
+            int base = row * columns;
+            int count = Math.min(probs.getEntryCount(row), columns);
+            double[] array = probs.getEntryArray(row);
+            if (array != null && count > 0 && count == probs.getRowLength(row)
+                    && probs.getEntryColumn(row, count - 1) == count - 1) {
+                // Every column is an entry, so the row lines up with its
+                // coefficients.
+                value += kernel.dot(coefficients, base, array,
+                        probs.getEntryOffset(row), count);
+            } else {
+                for (int j = 0; j < count; j++) {
+                    value += coefficients[base + probs.getEntryColumn(row, j)]
+                            * probs.getEntryValue(row, j);
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value of the expression for white noise, the distribution
+     * giving every output equally for every input.
+     *
+     * @return value
+     */
+    public double uniformValue() {
+        double value = 0;
+        for (double coefficient : coefficients) {
+            value += coefficient;
+        }
+        return value / columns;
+    }
+
+    /**
+     * Returns the value of the expression for each of the given boxes, in the
+     * order given. The boxes are shared between the given number of threads.
+     *
+     * @param boxes  the boxes being evaluated.
+     * @param threads  the number of threads used.
+     * @return values
+     */
+    public double[] evaluate(List<Box> boxes, int threads) {
+        double[] values = new double[boxes.size()];
+        if (threads <= 1) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = evaluate(boxes.get(i));
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new EvaluationTask(boxes, values, 0, values.length));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the value of the expression for each box of the given stream,
+     * in the order of the stream. Should the stream be parallel, so is the
+     * evaluation.
+     *
+     * @param boxes  the boxes being evaluated.
+     * @return values
+     */
+    public DoubleStream evaluate(Stream<Box> boxes) {
+        return boxes.mapToDouble(this::evaluate);
+    }
+
+    /**
+     * A task evaluating the expression for a range of a batch of boxes, split
+     * in half until small enough to be done directly.
+     */
+    @SuppressWarnings("serial")
+    private class EvaluationTask extends RecursiveAction {
+
+        /**
+         * The boxes being evaluated.
+         */
+        private final List<Box> boxes;
+
+        /**
+         * The value of each box, once evaluated.
+         */
+        private final double[] values;
+
+        /**
+         * The first box evaluated.
+         */
+        private final int from;
+
+        /**
+         * The box after the last evaluated.
+         */
+        private final int to;
+
+        /**
+         * Constructs a new task evaluating the given range of boxes.
+         *
+         * @param boxes  the boxes being evaluated.
+         * @param values  the value of each box, once evaluated.
+         * @param from  the first box evaluated.
+         * @param to  the box after the last evaluated.
+         */
+        private EvaluationTask(List<Box> boxes, double[] values, int from,
+                               int to) {
+            this.boxes = boxes;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    values[i] = evaluate(boxes.get(i));
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EvaluationTask(boxes, values, from, middle),
+                        new EvaluationTask(boxes, values, middle, to));
+            }
+        }
+    }
+}
@@ -1,5 +1,12 @@
 package com.aidanogrady.qgrady;
 
+import com.aidanogrady.qgrady.kernel.Kernel;
+import com.aidanogrady.qgrady.kernel.Kernels;
+import com.aidanogrady.qgrady.storage.DenseDistribution;
+import com.aidanogrady.qgrady.storage.Distribution;
+import com.aidanogrady.qgrady.storage.DistributionBuilder;
+import com.aidanogrady.qgrady.storage.RemappedDistribution;
+
 import java.util.*;
 
 /**
@@ -13,9 +20,24 @@ import java.util.*;
 public class Box {
 
     /**
-     * The probability distribution in 2D array format.
+     * The probability distribution.
+     */
+    private final Distribution probs;
+
+    /**
+     * The number of columns a valid matrix has, outputRange^outputs.
      */
-    private final double[][] probs;
+    private final int columns;
+
+    /**
+     * The place value of each input within a row index.
+     */
+    private final int[] inputStrides;
+
+    /**
+     * The place value of each output within a column index.
+     */
+    private final int[] outputStrides;
 
     /**
      * The inputs of this box.
@@ -27,6 +49,11 @@ public class Box {
      */
     private List<String> outputs;
 
+    /**
+     * The symbol table of the names of the inputs and outputs.
+     */
+    private SymbolTable symbols;
+
     /**
      * The range from 0 of the input values.
      */
@@ -38,7 +65,21 @@ public class Box {
     private int outputRange;
 
     /**
-     * Constructs a new box.
+     * The reduced probability of every single output given its own input,
+     * indexed by party, input value and output value. Built on first use.
+     */
+    private double[][][] reduced;
+
+    /**
+     * The marginal distributions of each group of parties, indexed by the
+     * bitmask of the parties kept, where bit i stands for input i and output
+     * i. Each marginal is built on first use.
+     */
+    private Distribution[] marginals;
+
+    /**
+     * Constructs a new box. The distribution is stored sparsely if few enough
+     * of its values are non-zero, and densely otherwise.
      *
      * @param probs  the probability distribution of this box.
      * @param inputs  the inputs of this box
@@ -49,22 +90,156 @@ public class Box {
                List<String> outputs,
                int inputRange,
                int outputRange)
+    {
+        this(DistributionBuilder.of(probs), inputs, outputs, inputRange, outputRange);
+    }
+
+    /**
+     * Constructs a new box around the given distribution.
+     *
+     * @param probs  the probability distribution of this box.
+     * @param inputs  the inputs of this box
+     * @param outputs  the outputs of this box
+     */
+    public Box(Distribution probs,
+               List<String> inputs,
+               List<String> outputs,
+               int inputRange,
+               int outputRange)
     {
         this.inputs = inputs;
         this. outputs = outputs;
         this.probs = probs;
         this.inputRange = inputRange;
         this.outputRange = outputRange;
+
+        inputStrides = strides(inputs.size(), inputRange);
+        outputStrides = strides(outputs.size(), outputRange);
+        columns = outputs.isEmpty() ? 1 : outputStrides[0] * outputRange;
+        symbols = new SymbolTable(inputs, outputs);
     }
 
     /**
-     * Returns the probabilities of this box.
+     * Returns the place value of each digit of a number with the given amount
+     * of digits in the given base, most significant digit first.
+     *
+     * @param size  the number of digits.
+     * @param base  the base of the number.
+     * @return strides
+     */
+    private static int[] strides(int size, int base) {
+        int[] strides = new int[size];
+        int stride = 1;
+        for(int i = size - 1; i >= 0; i--) {
+            strides[i] = stride;
+            stride *= base;
+        }
+        return strides;
+    }
+
+    /**
+     * Returns the probabilities of this box. The matrix is rebuilt from the
+     * underlying storage, so changes to it are not reflected in the box.
+     *
      * @return probs
      */
     public double[][] getProbs() {
+        double[][] matrix = new double[getRows()][];
+        for(int i = 0; i < matrix.length; i++) {
+            matrix[i] = new double[getRowLength(i)];
+            for(int j = 0; j < probs.getEntryCount(i); j++) {
+                matrix[i][probs.getEntryColumn(i, j)] =
+                        probs.getEntryValue(i, j);
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Returns the storage of the probability distribution.
+     *
+     * @return distribution
+     */
+    public Distribution getDistribution() {
         return probs;
     }
 
+    /**
+     * Returns the number of rows in the probability distribution.
+     *
+     * @return rows
+     */
+    public int getRows() {
+        return probs.getRows();
+    }
+
+    /**
+     * Returns the number of columns each row of a valid distribution has.
+     *
+     * @return columns
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of values given in the given row.
+     *
+     * @param row  the row being examined.
+     * @return row length
+     */
+    public int getRowLength(int row) {
+        return probs.getRowLength(row);
+    }
+
+    /**
+     * Replaces the values of the given row, discarding any reduced or marginal
+     * probabilities worked out from the old values. Rows sharing storage with
+     * the changed row are left as they were. Views of this box over the same
+     * storage see the change but keep their own cached results, so should be
+     * taken again afterwards.
+     *
+     * @param row  the row being replaced.
+     * @param values  the new values of the row.
+     */
+    public void setRow(int row, double[] values) {
+        probs.setRow(row, values);
+        reduced = null;
+        marginals = null;
+    }
+
+    /**
+     * Returns whether the two given rows are known to hold the same values,
+     * without comparing them.
+     *
+     * @param a  the first row being examined.
+     * @param b  the second row being examined.
+     * @return true if the rows share a row class.
+     */
+    public boolean sameRow(int a, int b) {
+        return probs.getRowClass(a) == probs.getRowClass(b);
+    }
+
+    /**
+     * Returns the place value of the given input in a row index.
+     *
+     * @param index  the index of the input.
+     * @return stride
+     */
+    public int getInputStride(int index) {
+        return inputStrides[index];
+    }
+
+    /**
+     * Returns the place value of the given output in a column index.
+     *
+     * @param index  the index of the output.
+     * @return stride
+     */
+    public int getOutputStride(int index) {
+        return outputStrides[index];
+    }
+
     /**
      * Returns the inputs of this setup.
      * @return inputs
@@ -73,6 +248,19 @@ public class Box {
         return inputs;
     }
 
+    /**
+     * Returns the symbol table of the names of the inputs and outputs. The
+     * table is built when the box is constructed, and is only built again if
+     * the lists of names have since been changed.
+     *
+     * @return symbols
+     */
+    public SymbolTable getSymbols() {
+        if (!symbols.matches(inputs, outputs))
+            symbols = new SymbolTable(inputs, outputs);
+        return symbols;
+    }
+
     /**
      * Retrusn the number of inputs in this setup.
      * @return inputs size
@@ -115,6 +303,147 @@ public class Box {
         return outputRange;
     }
 
+    /**
+     * Returns a view of this box with its parties reordered, such that party i
+     * of the view is party order[i] of this box. The distribution is not
+     * copied, with every look-up being passed through to this box's storage.
+     *
+     * @param order  the party of this box placed at each position.
+     * @return permuted box
+     */
+    public Box permute(int[] order) {
+        checkPermutation(order, inputs.size());
+        return remap(order, identities(inputRange), identities(outputRange));
+    }
+
+    /**
+     * Returns a view of this box with the values of the given input
+     * relabelled, such that value v of the input in the view stands for value
+     * values[v] in this box.
+     *
+     * @param index  the index of the input being relabelled.
+     * @param values  the value of this box each value of the view stands for.
+     * @return relabelled box
+     */
+    public Box relabelInputs(int index, int[] values) {
+        checkPermutation(values, inputRange);
+        int[][] inputValues = identities(inputRange);
+        inputValues[index] = values.clone();
+        return remap(identity(inputs.size()), inputValues,
+                identities(outputRange));
+    }
+
+    /**
+     * Returns a view of this box with the values of the given output
+     * relabelled, such that value v of the output in the view stands for value
+     * values[v] in this box.
+     *
+     * @param index  the index of the output being relabelled.
+     * @param values  the value of this box each value of the view stands for.
+     * @return relabelled box
+     */
+    public Box relabelOutputs(int index, int[] values) {
+        checkPermutation(values, outputRange);
+        int[][] outputValues = identities(outputRange);
+        outputValues[index] = values.clone();
+        return remap(identity(inputs.size()), identities(inputRange),
+                outputValues);
+    }
+
+    /**
+     * Returns a view of this box with its parties reordered and the values of
+     * its inputs and outputs relabelled.
+     *
+     * @param order  the party of this box placed at each position.
+     * @param inputValues  the value each input value stands for, per party.
+     * @param outputValues  the value each output value stands for, per party.
+     * @return view
+     */
+    private Box remap(int[] order, int[][] inputValues, int[][] outputValues) {
+        List<String> viewInputs = new ArrayList<>();
+        List<String> viewOutputs = new ArrayList<>();
+        for (int party : order) {
+            viewInputs.add(inputs.get(party));
+            viewOutputs.add(outputs.get(party));
+        }
+        int[] rows = indexMap(order, inputValues, inputStrides, inputRange);
+        int[] cols = indexMap(order, outputValues, outputStrides, outputRange);
+        return new Box(RemappedDistribution.of(probs, rows, cols), viewInputs,
+                viewOutputs, inputRange, outputRange);
+    }
+
+    /**
+     * Returns, for every index of the view, the index of this box it stands
+     * for.
+     *
+     * @param order  the party of this box placed at each position.
+     * @param values  the value each value stands for, per party.
+     * @param strides  the place value of each party in this box.
+     * @param range  the range of the values.
+     * @return index map
+     */
+    private static int[] indexMap(int[] order, int[][] values, int[] strides,
+                                  int range) {
+        MixedRadixCounter counter = new MixedRadixCounter(order.length, range);
+        int[] map = new int[(int) Math.pow(range, order.length)];
+        do {
+            int index = 0;
+            for (int i = 0; i < order.length; i++) {
+                index += strides[order[i]] * values[order[i]][counter.digit(i)];
+            }
+            map[counter.index()] = index;
+        } while (counter.increment());
+        return map;
+    }
+
+    /**
+     * Returns an identity relabelling of the given range for every party.
+     *
+     * @param range  the range of the values.
+     * @return relabellings
+     */
+    private int[][] identities(int range) {
+        int[][] values = new int[inputs.size()][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = identity(range);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the array [0, 1, ... size - 1].
+     *
+     * @param size  the size of the array.
+     * @return identity
+     */
+    private static int[] identity(int size) {
+        int[] identity = new int[size];
+        for (int i = 0; i < size; i++) {
+            identity[i] = i;
+        }
+        return identity;
+    }
+
+    /**
+     * Ensures that the given array holds every number from 0 to size - 1
+     * exactly once.
+     *
+     * @param array  the array being checked.
+     * @param size  the size the array should have.
+     */
+    private static void checkPermutation(int[] array, int size) {
+        boolean[] seen = new boolean[size];
+        if (array.length != size)
+            throw new IllegalArgumentException("Expected " + size
+                    + " values, got " + array.length);
+        for (int value : array) {
+            if (value < 0 || value >= size || seen[value])
+                throw new IllegalArgumentException(Arrays.toString(array)
+                        + " is not a permutation");
+            seen[value] = true;
+        }
+    }
+
     /**
      * Converts a List of Lists into a two-dimensional array. When parsing with
      * Cup, the List was preferred due to the ease of using of not having to
@@ -144,9 +473,8 @@ public class Box {
      */
     public static int arrayToInt(int[] array, int base) {
         int value = 0;
-        for(int i = 0; i < array.length; i++) {
-            int power = array.length - 1 - i;
-            value += array[i] * Math.pow(base, power);
+        for(int digit : array) {
+            value = value * base + digit;
         }
         return value;
     }
@@ -183,17 +511,55 @@ public class Box {
      * @return p(output &#124; input)
      */
     public double prob(int[] input, int[] output) {
-        int in = Box.arrayToInt(input, inputRange);
-        int out = Box.arrayToInt(output, outputRange);
-        return probs[in][out];
+        return prob(inputIndex(input), outputIndex(output));
+    }
+
+    /**
+     * Returns the probability found in the given row and column of the
+     * distribution. The box is assumed to have passed row validation.
+     *
+     * @param row  the row index, as given by inputIndex.
+     * @param column  the column index, as given by outputIndex.
+     * @return p(column &#124; row)
+     */
+    public double prob(int row, int column) {
+        return probs.get(row, column);
+    }
+
+    /**
+     * Returns the row index of the given input values.
+     *
+     * @param input  the value of each input.
+     * @return row index
+     */
+    public int inputIndex(int[] input) {
+        int index = 0;
+        for(int i = 0; i < input.length; i++) {
+            index += input[i] * inputStrides[i];
+        }
+        return index;
     }
 
+    /**
+     * Returns the column index of the given output values.
+     *
+     * @param output  the value of each output.
+     * @return column index
+     */
+    public int outputIndex(int[] output) {
+        int index = 0;
+        for(int i = 0; i < output.length; i++) {
+            index += output[i] * outputStrides[i];
+        }
+        return index;
+    }
 
     /**
      * Returns the probability of the given single output and its value based on
      * the given single input and it's value.
      *
-     * This is currently horrific and terrifying.
+     * The probabilities for every party are worked out together on the first
+     * call, so every call afterwards is a table look-up.
      *
      * @param inputIndex  the index of the input being examined.
      * @param input  the value of the input.
@@ -202,25 +568,86 @@ public class Box {
      * @return  p(output | input).
      */
     public double prob(int inputIndex, int input, int outputIndex, int output) {
-        double sum = 0.0;
-        int inMax = (int) Math.pow(inputRange, inputs.size());
-        int outMax = (int) Math.pow(outputRange, outputs.size());
-        for(int i = 0; i < inMax; i++) {
-            for(int j = 0; j < outMax; j++) {
-                int[] in = Box.intToArray(i, inputs.size(), inputRange);
-                int[] out = Box.intToArray(j, outputs.size(), outputRange);
-                if(in[inputIndex] == input  && out[outputIndex] == output)
-                    sum += prob(in, out);
-            }
+        if(inputIndex != outputIndex) {
+            return jointProb(inputIndex, input, outputIndex, output);
+        }
+        if(reduced == null) {
+            reduced = reduced();
         }
+        return reduced[inputIndex][input][output];
+    }
+
+    /**
+     * Builds the table of reduced probabilities for every party in a single
+     * pass over the distribution. Each sum is accumulated in the same order as
+     * summing the matrix cell by cell, so the values are exactly those the
+     * party-by-party sums would give.
+     *
+     * @return reduced probabilities.
+     */
+    private double[][][] reduced() {
+        int parties = Math.min(inputs.size(), outputs.size());
+        double[][][] table = new double[parties][inputRange][outputRange];
+        MixedRadixCounter in = new MixedRadixCounter(inputs.size(), inputRange);
+        do {
+            int row = in.index();
+            for(int j = 0; j < probs.getEntryCount(row); j++) {
+                double value = probs.getEntryValue(row, j);
+                int column = probs.getEntryColumn(row, j);
+                if(value != 0) {
+                    for(int i = 0; i < parties; i++) {
+                        int out = column / outputStrides[i] % outputRange;
+                        table[i][in.digit(i)][out] += value;
+                    }
+                }
+            }
+        } while(in.increment());
+
         // Need to perform some weird stuff to ensure that the reduced
         // probability is accurate.
+        double rows = Math.pow(inputRange, inputs.size() - 1);
+        for(double[][] party : table) {
+            for(double[] input : party) {
+                for(int i = 0; i < input.length; i++) {
+                    input[i] /= rows;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns the probability of the given output taking the given value when
+     * the given input, belonging to another party, takes the given value.
+     *
+     * @param inputIndex  the index of the input being examined.
+     * @param input  the value of the input.
+     * @param outputIndex  the index of the output being examined.
+     * @param output  the value of the output.
+     * @return  p(output | input).
+     */
+    private double jointProb(int inputIndex, int input, int outputIndex,
+                             int output) {
+        double sum = 0.0;
+        MixedRadixCounter in = new MixedRadixCounter(inputs.size(), inputRange);
+        MixedRadixCounter out = new MixedRadixCounter(outputs.size(),
+                outputRange);
+        do {
+            do {
+                if(in.digit(inputIndex) == input
+                        && out.digit(outputIndex) == output)
+                    sum += prob(in.index(), out.index());
+            } while(out.increment());
+        } while(in.increment());
         return sum / Math.pow(inputRange, inputs.size() - 1);
     }
 
     /**
      * Returns the normalized probability distribution based on the given
-     * input and output.
+     * input and output. This is the probability of the output of indices[0]
+     * given its input and the inputs and outputs of every party that is not
+     * being normalised, while the outputs of the rest of the indices are still
+     * unknown.
      *
      * @param input  the known input values
      * @param output  the known output to be normalised over.
@@ -228,40 +655,246 @@ public class Box {
      * @return probability
      */
     public double normalisedProb(int[] input, int[] output, int[] indices) {
+        int mask = (1 << inputs.size()) - 1;
+        for (int i = 1; i < indices.length; i++) {
+            mask &= ~(1 << indices[i]);
+        }
+        return conditionalProb(mask, indices[0], input, output);
+    }
+
+    /**
+     * Returns the probability of the given party's output within the given
+     * group of parties, given the inputs of the group and the outputs of the
+     * rest of the group. The parties outside of the group are ignored.
+     *
+     * @param mask  the bitmask of the group of parties.
+     * @param index  the party whose output is being examined.
+     * @param input  the value of each input.
+     * @param output  the value of each output.
+     * @return p(output[index] | input, output of rest of group)
+     */
+    public double conditionalProb(int mask, int index, int[] input,
+                                  int[] output) {
+        Distribution marginal = marginal(mask);
+
+        // Find the cell of the given values, and the stride of index within it.
+        int row = 0;
+        int column = 0;
+        int stride = 1;
+        for (int i = 0; i < inputs.size(); i++) {
+            if ((mask & (1 << i)) != 0) {
+                row = row * inputRange + input[i];
+                column = column * outputRange + output[i];
+                stride *= outputRange;
+                if (i == index)
+                    stride = 1;
+            }
+        }
+        column -= output[index] * stride;
+
         double sum = 0;
-        int size = indices.length;
-        int[] inputCopy = Arrays.copyOf(input, input.length);
-
-        if (indices.length > 1) {
-            // Must iterate through all the inputs that must be considered.
-            for (int i = 1; i < indices.length; i++) {
-                for (int j = 0; j < inputRange; j++) {
-                    inputCopy[indices[i]] = j;
-
-                    // Go through all outputs that must be handled.
-                    int max = (int) Math.pow(outputRange, size);
-                    int[] outputCopy = Arrays.copyOf(output, output.length);
-                    for (int k = 0; k < max; k++) {
-                        int[] bits = Box.intToArray(k, size, outputRange);
-                        for (int l = 0; l < size; l++) {
-                            outputCopy[indices[l]] = bits[l];
-                        }
-                        sum += prob(inputCopy, outputCopy);
-                    }
-                }
+        for (int i = 0; i < outputRange; i++) {
+            sum += marginal.get(row, column + i * stride);
+        }
+        if (sum == 0)
+            return 0;
+        return marginal.get(row, column + output[index] * stride) / sum;
+    }
+
+    /**
+     * Returns every value of conditionalProb for the given group and party,
+     * with the input of the party fixed at the given value, found in a single
+     * pass over the marginal of the group.
+     *
+     * The values are laid out by the inputs of the rest of the group, then by
+     * their outputs, and finally by the output of the party, each in the
+     * order of counting through them with the first party most significant.
+     * Every value is worked out exactly as conditionalProb would.
+     *
+     * @param mask  the bitmask of the group of parties.
+     * @param index  the party whose output is being examined.
+     * @param input  the value of the party's input.
+     * @return table of conditional probabilities
+     */
+    public double[] conditionalTable(int mask, int index, int input) {
+        Distribution marginal = marginal(mask);
+        int others = Integer.bitCount(mask) - 1;
+        int[] inRadices = new int[others];
+        int[] inWeights = new int[others];
+        int[] outRadices = new int[others];
+        int[] outWeights = new int[others];
+        int rowStride = 1;
+        int stride = 1;
+        int rowWeight = 1;
+        int colWeight = 1;
+        int other = others;
+        for (int i = inputs.size() - 1; i >= 0; i--) {
+            if ((mask & (1 << i)) == 0)
+                continue;
+            if (i == index) {
+                rowStride = rowWeight;
+                stride = colWeight;
+            } else {
+                other--;
+                inRadices[other] = inputRange;
+                inWeights[other] = rowWeight;
+                outRadices[other] = outputRange;
+                outWeights[other] = colWeight;
             }
-            // I'll be honest, I stumbled upon this solution at random.
-            return sum / Math.pow(outputRange, size - (outputs.size() - size));
-         } else {
-            // Perform much simpler equation.
-            int[] outputCopy = Arrays.copyOf(output, output.length);
-            for (int index : indices) {
+            rowWeight *= inputRange;
+            colWeight *= outputRange;
+        }
+
+        MixedRadixCounter in = new MixedRadixCounter(inRadices, inWeights);
+        MixedRadixCounter out = new MixedRadixCounter(outRadices, outWeights);
+        int cells = (int) Math.pow(inputRange * outputRange, others);
+        double[] table = new double[cells * outputRange];
+        int position = 0;
+        do {
+            int row = in.index() + input * rowStride;
+            do {
+                int column = out.index();
+                double sum = 0;
+                for (int i = 0; i < outputRange; i++) {
+                    sum += marginal.get(row, column + i * stride);
+                }
                 for (int i = 0; i < outputRange; i++) {
-                    outputCopy[index] = i;
-                    sum += prob(input, outputCopy);
+                    table[position++] = sum == 0 ? 0
+                            : marginal.get(row, column + i * stride) / sum;
+                }
+            } while (out.increment());
+        } while (in.increment());
+        return table;
+    }
+
+    /**
+     * Returns the marginal distribution of the given group of parties. Its
+     * rows are the inputs of the group and its columns the outputs of the
+     * group, both in the order the parties appear in the box.
+     *
+     * The marginal is found from a group holding one more party by summing
+     * over that party's output and averaging over its input, preferring a
+     * group whose marginal has already been found. Only the entries of each
+     * distribution are visited, so sparse boxes are contracted cheaply.
+     *
+     * @param mask  the bitmask of the group of parties.
+     * @return marginal distribution
+     */
+    public Distribution marginal(int mask) {
+        int all = (1 << inputs.size()) - 1;
+        if (marginals == null) {
+            marginals = new Distribution[all + 1];
+            marginals[all] = probs;
+        }
+        if (marginals[mask] != null)
+            return marginals[mask];
+
+        // Contract along the axis of a party outside the group.
+        int party = -1;
+        for (int i = 0; i < inputs.size(); i++) {
+            int bit = 1 << i;
+            if ((mask & bit) == 0) {
+                if (party < 0 || marginals[mask | bit] != null)
+                    party = i;
+                if (marginals[mask | bit] != null)
+                    break;
+            }
+        }
+        marginals[mask] = contract(marginal(mask | (1 << party)),
+                mask | (1 << party), party);
+        return marginals[mask];
+    }
+
+    /**
+     * Returns the marginal of the given group if it has already been found,
+     * without finding it otherwise.
+     *
+     * @param mask  the bitmask of the group of parties.
+     * @return marginal distribution, or null
+     */
+    Distribution knownMarginal(int mask) {
+        if (marginals == null || mask == (1 << inputs.size()) - 1)
+            return null;
+        return marginals[mask];
+    }
+
+    /**
+     * Gives the marginal of the given group, as found for a box with the same
+     * contents, so that it need not be found again.
+     *
+     * @param mask  the bitmask of the group of parties.
+     * @param marginal  the marginal distribution of the group.
+     */
+    void setMarginal(int mask, Distribution marginal) {
+        if (marginals == null) {
+            marginals = new Distribution[1 << inputs.size()];
+            marginals[marginals.length - 1] = probs;
+        }
+        marginals[mask] = marginal;
+    }
+
+    /**
+     * Removes the given party from the given marginal, summing over the values
+     * of its output and averaging over the values of its input.
+     *
+     * @param parent  the marginal the party is being removed from.
+     * @param mask  the bitmask of the group of parties of the parent.
+     * @param party  the party being removed.
+     * @return marginal without party
+     */
+    private Distribution contract(Distribution parent, int mask, int party) {
+        int parties = Integer.bitCount(mask);
+        int position = Integer.bitCount(mask & ((1 << party) - 1));
+        int[] rows = contraction(parties, position, inputRange);
+        int[] cols = contraction(parties, position, outputRange);
+        int childRows = rows.length / inputRange;
+        int childCols = cols.length / outputRange;
+
+        // The columns of the parent come in runs of low that map onto a run
+        // of the child, so full rows held in an array are added a run at a
+        // time by the kernel.
+        int low = (int) Math.pow(outputRange, parties - 1 - position);
+        Kernel kernel = Kernels.get();
+        double[] child = new double[childRows * childCols];
+        for (int i = 0; i < rows.length; i++) {
+            int childRow = rows[i] * childCols;
+            int count = parent.getEntryCount(i);
+            double[] array = parent.getEntryArray(i);
+            if (array != null && count == cols.length && low > 1) {
+                int offset = parent.getEntryOffset(i);
+                for (int j = 0; j < count; j += low) {
+                    kernel.add(array, offset + j, child, childRow + cols[j],
+                            low);
                 }
+                continue;
             }
-            return prob(input, output) / sum;
+            for (int j = 0; j < count; j++) {
+                double value = parent.getEntryValue(i, j);
+                if (value != 0)
+                    child[childRow + cols[parent.getEntryColumn(i, j)]] +=
+                            value;
+            }
+        }
+        kernel.divide(child, 0, child.length, inputRange);
+        return new DenseDistribution(child, childRows, childCols);
+    }
+
+    /**
+     * Returns, for every index of a number with the given amount of digits in
+     * the given base, the index of the number left once the digit at the given
+     * position has been removed.
+     *
+     * @param size  the number of digits.
+     * @param position  the position of the digit removed.
+     * @param base  the base of every digit.
+     * @return contracted indices
+     */
+    private static int[] contraction(int size, int position, int base) {
+        int low = (int) Math.pow(base, size - 1 - position);
+        int[] indices = new int[low * (int) Math.pow(base, position + 1)];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i / (low * base) * low + i % low;
         }
+        return indices;
     }
 }
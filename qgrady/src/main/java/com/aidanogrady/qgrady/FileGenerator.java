@@ -2,15 +2,43 @@ package com.aidanogrady.qgrady;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * The FileGenerator class handles the operations that convert the Box class
  * into a .prism file that can be used in the model checker.
  *
+ * Every line generated is handed to a sink as soon as it is made. The lines
+ * can be gathered up with generateLines and written with write, or streamed
+ * straight to a writer with generate, in which case no more than a single
+ * line of the model is ever held in memory, and the model starts reaching its
+ * destination as soon as generation begins.
+ *
+ * The INPUT modules, and the blocks of normalised commands for each group of
+ * outputs and input value, do not depend on one another, so can be generated
+ * on several threads. Each block is rendered into a buffer of its own, and
+ * the buffers are sent on in the same order as generating them one by one
+ * would, so the model is identical whatever the number of threads. Only a
+ * few blocks per thread are ever rendered ahead of those sent on.
+ *
+ * The conditions and updates the commands are made of are built once per
+ * model, keyed by the symbol ID of their variable and their value, and each
+ * normalised command is put together by appending them to a buffer reused
+ * for every command of its block.
+ *
  * @author Aidan O'Grady
  * @since 0.6
  */
 public class FileGenerator {
+    /**
+     * The number of blocks per thread that may be rendered ahead of the block
+     * being sent on.
+     */
+    private static final int WINDOW = 4;
+
     /**
      * The non-local box to be converted.
      */
@@ -22,10 +50,25 @@ public class FileGenerator {
     private File dest;
 
     /**
-     * The lines to be written to the file.
+     * The lines to be written to the file, when gathered by generateLines.
      */
     private List<String> lines;
 
+    /**
+     * Where each line is sent as it is generated.
+     */
+    private Consumer<String> sink;
+
+    /**
+     * The number of threads generating blocks.
+     */
+    private int threads = 1;
+
+    /**
+     * The pool generating blocks, or null if they are generated in turn.
+     */
+    private ForkJoinPool pool;
+
     /**
      * The input variable names.
      */
@@ -41,6 +84,33 @@ public class FileGenerator {
      */
     private String ready = "ready";
 
+    /**
+     * The condition that ready is true.
+     */
+    private String readyGuard;
+
+    /**
+     * The symbol ID of each input.
+     */
+    private int[] inputIds;
+
+    /**
+     * The symbol ID of each output.
+     */
+    private int[] outputIds;
+
+    /**
+     * The condition of each variable being equal to each value, by symbol ID
+     * and then by value, starting from -1.
+     */
+    private String[][] conditions;
+
+    /**
+     * The update making ready false and giving each output each value, by
+     * output and then by value.
+     */
+    private String[][] updates;
+
     /**
      * Constructs a new FileGenerator object.
      *
@@ -54,6 +124,16 @@ public class FileGenerator {
     }
 
 
+    /**
+     * Sets the number of threads generating blocks of the model.
+     *
+     * @param threads  the number of threads.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+
     /**
      * Begins the file writing process.
      */
@@ -72,20 +152,151 @@ public class FileGenerator {
     }
 
 
+    /**
+     * Streams the model to the destination file, writing each line as it is
+     * generated.
+     */
+    public void stream() {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(dest))) {
+            generate(bw);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Generates the model, writing each line to the given writer as soon as
+     * it is generated. The writer is neither flushed nor closed.
+     *
+     * @param writer  the writer the model is written to.
+     * @throws IOException - If the writer fails.
+     */
+    public void generate(Writer writer) throws IOException {
+        String separator = System.lineSeparator();
+        try {
+            generate(line -> {
+                try {
+                    writer.write(line);
+                    writer.write(separator);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+
     /**
      * Systematically generates all the lines that are to be written to the
      * prism file.
      */
     public void generateLines() {
+        generate(lines::add);
+    }
+
+
+    /**
+     * Generates every line of the model, handing each to the given sink.
+     *
+     * @param sink  where each line is sent.
+     */
+    private void generate(Consumer<String> sink) {
+        this.sink = sink;
         inputs = box.getInputs();
         outputs = box.getOutputs();
-        lines.add(PrismMacros.MODEL_TYPE);
-        lines.add("");
-        inputs();
-        lines.add(PrismMacros.MODULE + " OUTPUT");
-        outputs();
-        lines.add(PrismMacros.END_MODULE);
-        lines.add("");
+        fragments();
+        if (threads > 1)
+            pool = new ForkJoinPool(threads);
+        try {
+            emit(PrismMacros.MODEL_TYPE);
+            emit("");
+            inputs();
+            emit(PrismMacros.MODULE + " OUTPUT");
+            outputs();
+            emit(PrismMacros.END_MODULE);
+            emit("");
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Builds the conditions and updates that commands are made of.
+     */
+    private void fragments() {
+        SymbolTable symbols = box.getSymbols();
+        int range = Math.max(box.getInputRange(), box.getOutputRange());
+        conditions = new String[symbols.size()][range + 1];
+        inputIds = new int[inputs.size()];
+        for (int i = 0; i < inputs.size(); i++) {
+            inputIds[i] = symbols.getInputId(i);
+            for (int v = -1; v < range; v++) {
+                conditions[inputIds[i]][v + 1] =
+                        PrismMacros.isEqual(inputs.get(i), v);
+            }
+        }
+        outputIds = new int[outputs.size()];
+        updates = new String[outputs.size()][box.getOutputRange()];
+        for (int i = 0; i < outputs.size(); i++) {
+            outputIds[i] = symbols.getOutputId(i);
+            for (int v = -1; v < range; v++) {
+                conditions[outputIds[i]][v + 1] =
+                        PrismMacros.isEqual(outputs.get(i), v);
+            }
+            for (int v = 0; v < box.getOutputRange(); v++) {
+                updates[i][v] = PrismMacros.assign(ready, false)
+                        + PrismMacros.AND + PrismMacros.assign(outputs.get(i), v);
+            }
+        }
+        readyGuard = PrismMacros.isEqual(ready, true);
+    }
+
+    /**
+     * Generates the given number of blocks, sending the lines of each to the
+     * sink in order. Given a pool, the blocks are rendered on its threads into
+     * buffers of their own, otherwise each is sent straight to the sink.
+     *
+     * @param count  the number of blocks.
+     * @param block  renders the block of the given number to the given sink.
+     */
+    private void blocks(int count,
+                        BiConsumer<Integer, Consumer<String>> block) {
+        if (pool == null) {
+            for (int i = 0; i < count; i++) {
+                block.accept(i, sink);
+            }
+            return;
+        }
+
+        Deque<ForkJoinTask<List<String>>> pending = new ArrayDeque<>();
+        int next = 0;
+        while (next < count || !pending.isEmpty()) {
+            while (next < count && pending.size() < threads * WINDOW) {
+                int i = next++;
+                pending.add(pool.submit(() -> {
+                    List<String> buffer = new ArrayList<>();
+                    block.accept(i, buffer::add);
+                    return buffer;
+                }));
+            }
+            for (String line : pending.poll().join()) {
+                emit(line);
+            }
+        }
+    }
+
+    /**
+     * Sends the given line to the sink.
+     *
+     * @param line  the line generated.
+     */
+    private void emit(String line) {
+        sink.accept(line);
     }
 
     /**
@@ -93,30 +304,38 @@ public class FileGenerator {
      * file.
      */
     private void inputs() {
-        for(String input : inputs) {
-            String module = PrismMacros.MODULE + " INPUT_" + input;
-            lines.add(module);
+        blocks(inputs.size(), (i, out) -> input(inputs.get(i), out));
+    }
 
-            lines.add(PrismMacros.varDec(input, box.getInputRange() - 1, -1));
+    /**
+     * Generates the INPUT module of the given input.
+     *
+     * @param input  the input whose module is generated.
+     * @param out  where each line is sent.
+     */
+    private void input(String input, Consumer<String> out) {
+        String module = PrismMacros.MODULE + " INPUT_" + input;
+        out.accept(module);
 
-            String sync = "";
+        out.accept(PrismMacros.varDec(input, box.getInputRange() - 1, -1));
 
-            String guard = PrismMacros.isEqual(input, -1);
-            String action = PrismMacros.equalDist(input, box.getInputRange());
-            lines.add(PrismMacros.command(sync, guard, action));
-            lines.add("");
+        String sync = "";
 
-            for(int i = 0; i < box.getInputRange(); i++) {
-                sync = input + i;
-                guard = PrismMacros.isEqual(input, i);
-                action = PrismMacros.assign(input, i);
-                lines.add(PrismMacros.command(sync, guard, action));
-            }
+        String guard = PrismMacros.isEqual(input, -1);
+        String action = PrismMacros.equalDist(input, box.getInputRange());
+        out.accept(PrismMacros.command(sync, guard, action));
+        out.accept("");
 
-            lines.add("");
-            lines.add(PrismMacros.END_MODULE);
-            lines.add("");
+        for(int i = 0; i < box.getInputRange(); i++) {
+            sync = input + i;
+            guard = PrismMacros.isEqual(input, i);
+            action = PrismMacros.assign(input, i);
+            out.accept(PrismMacros.command(sync, guard, action));
         }
+
+        out.accept("");
+        out.accept(PrismMacros.END_MODULE);
+        out.accept("");
     }
 
 
@@ -124,15 +343,15 @@ public class FileGenerator {
      * Handles the generation of the output part of the Prism model.
      */
     private void outputs() {
-        lines.add(PrismMacros.varDec(ready, true));
+        emit(PrismMacros.varDec(ready, true));
         for(String output : outputs) {
-            lines.add(PrismMacros.varDec(output, box.getOutputRange() - 1, -1));
+            emit(PrismMacros.varDec(output, box.getOutputRange() - 1, -1));
         }
-        lines.add("");
+        emit("");
         outputSyncs();
-        lines.add("");
+        emit("");
         reduced();
-        lines.add("");
+        emit("");
         normalised();
     }
 
@@ -156,7 +375,7 @@ public class FileGenerator {
                 actions[1] = PrismMacros.assign(outputs.get(i), j);
                 list = Arrays.asList(actions);
                 String action = PrismMacros.listToString(list, '&');
-                lines.add(PrismMacros.command(sync, guard, action));
+                emit(PrismMacros.command(sync, guard, action));
             }
         }
     }
@@ -167,12 +386,11 @@ public class FileGenerator {
      */
     private void reduced() {
         // The guard is the same in all cases, so generate it first.
-        List<String> guards = new ArrayList<>();
-        guards.add(PrismMacros.isEqual(ready, true));
-        for (String output : outputs) {
-            guards.add(PrismMacros.isEqual(output, -1));
+        StringBuilder guards = new StringBuilder(readyGuard);
+        for (int id : outputIds) {
+            guards.append(PrismMacros.AND).append(conditions[id][0]);
         }
-        String guard = PrismMacros.listToString(guards, '&');
+        String guard = guards.toString();
 
         // Handle all inputs and outputs
         for(int i = 0; i < box.getNoOfOutputs(); i++) {
@@ -183,16 +401,12 @@ public class FileGenerator {
 
                 List<String> probs = new ArrayList<>();
                 for(int k = 0; k < box.getOutputRange(); k++) { // P(k | j);
-                    List<String> actions = new ArrayList<>();
-                    actions.add(PrismMacros.assign(ready, false));
-                    actions.add(PrismMacros.assign(outputs.get(i), k));
-                    String action = PrismMacros.listToString(actions, '&');
                     double prob = box.prob(i, j, i, k);
-                    probs.add(PrismMacros.prob(prob, action));
+                    probs.add(PrismMacros.prob(prob, updates[i][k]));
                 }
 
                 String action = PrismMacros.listToString(probs, '+');
-                lines.add(PrismMacros.command(sync, guard, action));
+                emit(PrismMacros.command(sync, guard, action));
             }
         }
     }
@@ -203,200 +417,147 @@ public class FileGenerator {
      */
     private void normalised() {
         List<List<Integer>> lists = getAllLists(box.getNoOfOutputs());
+
+        // Find every marginal up front, so that the blocks only read the box.
         for (List<Integer> list : lists) {
-            for (int i = 0; i < box.getInputRange(); i++) {
-                normalised(list, i);
+            int mask = (1 << box.getNoOfInputs()) - 1;
+            for (int i = 1; i < list.size(); i++) {
+                mask &= ~(1 << list.get(i));
             }
-            lines.add("");
+            box.marginal(mask);
         }
+
+        int range = box.getInputRange();
+        blocks(lists.size() * range, (i, out) -> {
+            normalised(lists.get(i / range), i % range, out);
+            if (i % range == range - 1)
+                out.accept("");
+        });
     }
 
     /**
      * Handles the generation of the normalised probabilities that occur related
      * to the given indices being normalised and the value of the input in this
-     * case.
+     * case. The probabilities are found all at once as a table, which is then
+     * read through in the same order as the commands are generated.
      *
      * @param indices  The indices of the output being normalised.
      * @param val  The value of indices[0]'s input.
+     * @param output  Where each line is sent.
      */
-    private void normalised(List<Integer> indices, int val) {
-        String sync = inputs.get(indices.get(0)) + val;
-
-        // How many different inputs can there be?
-        int iMax = (int) Math.pow(
-                box.getInputRange(),
-                box.getNoOfInputs() - indices.size()
-        );
-
-        // How many different outputs can there be?
-        int oMax = (int) Math.pow(
-                box.getOutputRange(),
-                box.getNoOfOutputs() - indices.size()
-        );
-
-        // Handle all cases
-        for (int i = 0; i < iMax; i++) {
-            for (int j = 0; j < oMax; j++) {
-
-                // Guard
-                List<String> guards = new ArrayList<>();
-                guards.addAll(inputGuards(indices, i));
-                guards.add(PrismMacros.isEqual(ready, true));
-                guards.addAll(outputGuards(indices, j));
-                String guard = PrismMacros.listToString(guards, '&');
-
-                // Array conversions for probabilities
-                int size = box.getNoOfInputs() - indices.size();
-                int[] in = Box.intToArray(i, size, box.getInputRange());
-                size = box.getNoOfOutputs() - indices.size();
-                int[] out = Box.intToArray(j, size, box.getOutputRange());
-                List<String> commands = commands(indices, in, out, val);
-
-                String command = PrismMacros.listToString(commands, '+');
-                lines.add(PrismMacros.command(sync, guard, command));
-            }
+    private void normalised(List<Integer> indices, int val,
+                            Consumer<String> output) {
+        int index = indices.get(0);
+        String sync = inputs.get(index) + val;
+        int mask = 0;
+        for (int i : indices) {
+            mask |= 1 << i;
         }
-    }
-
-    /**
-     * Returns a list of guards required for the normalised probabilities that
-     * require the input values.
-     *
-     * @param indices  the indices being normalised
-     * @param val  the value of this iteration
-     * @return  guards
-     */
-    private List<String> inputGuards(List<Integer> indices, int val) {
-        List<String> guards = new ArrayList<>();
-        int size = box.getNoOfInputs() - indices.size();
-        int[] bits = Box.intToArray(val, size, box.getInputRange());
-
-        // Ensure that all possible guards are accounted for.
-        int step = 0;
-        for (int i= 0; i < box.getNoOfInputs(); i++) {
-            if (!indices.contains(i)) {
-                guards.add(PrismMacros.isEqual(inputs.get(i), bits[step]));
-                step++;
+        int group = ((1 << box.getNoOfInputs()) - 1) & ~mask | (1 << index);
+        double[] table = box.conditionalTable(group, index, val);
+        int position = 0;
+
+        int inSize = box.getNoOfInputs() - indices.size();
+        int outSize = box.getNoOfOutputs() - indices.size();
+        MixedRadixCounter in = new MixedRadixCounter(inSize,
+                box.getInputRange());
+        MixedRadixCounter out = new MixedRadixCounter(outSize,
+                box.getOutputRange());
+
+        // The sync and the input conditions are shared by many commands, so
+        // each is only appended once and the rest is put together after it.
+        StringBuilder line = PrismMacros.beginCommand(new StringBuilder(),
+                sync);
+        int start = line.length();
+        do {
+            line.setLength(start);
+            int step = 0;
+            for (int i = 0; i < box.getNoOfInputs(); i++) {
+                if ((mask & (1 << i)) == 0) {
+                    line.append(conditions[inputIds[i]][in.digit(step) + 1])
+                            .append(PrismMacros.AND);
+                    step++;
+                }
             }
-        }
-        return guards;
-    }
+            line.append(readyGuard);
+            int prefix = line.length();
+            do {
+                line.setLength(prefix);
+                step = 0;
+                for (int i = 0; i < box.getNoOfOutputs(); i++) {
+                    line.append(PrismMacros.AND);
+                    if ((mask & (1 << i)) != 0) {
+                        // Unknown variables.
+                        line.append(conditions[outputIds[i]][0]);
+                    } else {
+                        // Known variables.
+                        line.append(
+                                conditions[outputIds[i]][out.digit(step) + 1]);
+                        step++;
+                    }
+                }
+                PrismMacros.beginAction(line);
+
+                boolean first = true;
+                for (int a = 0; a < box.getOutputRange(); a++) {
+                    double prob = table[position + a];
+                    if (prob > 0) { // Ignore transitions that can't happen.
+                        if (!first)
+                            line.append(PrismMacros.CHOICE);
+                        PrismMacros.appendProb(line, prob, updates[index][a]);
+                        first = false;
+                    }
+                }
+                position += box.getOutputRange();
 
-    /**
-     * Returns a list of guards required for the normalised probabilities that
-     * require the outputs values.
-     *
-     * @param indices  the indices being normalised
-     * @param val  the value of this iteration
-     * @return  guards
-     */
-    private List<String> outputGuards(List<Integer> indices, int val) {
-        List<String> guards = new ArrayList<>();
-        int size = box.getNoOfOutputs() - indices.size();
-        int[] bits = Box.intToArray(val, size, box.getOutputRange());
-        int step = 0;
-
-        // Ensure that all possible guards are accounted for.
-        for (int i = 0; i < box.getNoOfOutputs(); i++) {
-            if(indices.contains(i))
-                // Unknown variables.
-                guards.add(PrismMacros.isEqual(outputs.get(i), -1));
-            else {
-                // Known variables.
-                guards.add(PrismMacros.isEqual(outputs.get(i), bits[step]));
-                step++;
-            }
-        }
-        return guards;
+                output.accept(PrismMacros.endCommand(line).toString());
+            } while (out.increment());
+        } while (in.increment());
     }
 
     /**
-     * Returns a list of PRISM actions that can occur with the given
-     * criteria and the normalised probabilities calculated.
+     * Returns all the possible lists that the given number of inputs can
+     * be normalised over. These are the ordered selections of distinct
+     * inputs, shorter ones first and each length in lexicographic order, and
+     * they are built directly rather than filtered out of every list of
+     * inputs, so the time taken is in proportion to the number returned.
      *
-     * @param indices The indices being normalised.
-     * @param in  The input being generated.
-     * @param out  The output being generated.
-     * @param val  The value of the input that just triggered.
-     * @return  commands
-     */
-    private List<String> commands(List<Integer> indices, int[] in, int[] out,
-                                  int val) {
-        int index = indices.get(0);
-
-        int[] indArray = new int[indices.size()];
-        for (int i = 0; i < indArray.length; i++) {
-            indArray[i] = indices.get(i);
-        }
-
-        List<String> commands = new ArrayList<>();
-        int[] input = getArray(indices, in, box.getNoOfInputs());
-        int[] output = getArray(indices, out, box.getNoOfOutputs());
-        input[index] = val;
-
-        for (int i = 0; i < box.getOutputRange(); i++) {
-            output[index] = i;
-            double prob = box.normalisedProb(input, output, indArray);
-            if(prob > 0) { // Ignore transitions that can't happen.
-                List<String> acts = new ArrayList<>();
-                acts.add(PrismMacros.assign(ready, false));
-                acts.add(PrismMacros.assign(outputs.get(index), i));
-                String act = PrismMacros.listToString(acts, '&');
-                commands.add(PrismMacros.prob(prob, act));
-            }
+     * @param range  the number of inputs of the set-up.
+     * @return  lists
+     */
+    private List<List<Integer>> getAllLists(int range) {
+        List<List<Integer>> lists = new ArrayList<>();
+        // Empty list and [0, 1, ... range - 1[ aren't added.
+        for (int i = 1; i < range; i++) {
+            permutations(new int[i], 0, 0, range, lists);
         }
-        return commands;
+        return lists;
     }
 
     /**
-     * Returns an array conversion, combining the given array and given
-     * indices based on the given size.
+     * Adds every way of completing the given list with distinct inputs not
+     * yet used, in lexicographic order.
      *
-     * @param indices  the indices being normalised at this stage.
-     * @param array  the array being fed into box.
-     * @param size  the size of the new array.
-     * @return  array
-     */
-    private int[] getArray(List<Integer> indices, int[] array, int size) {
-        int[] input = new int[size];
-        int step = 0;
-        for (int i = 0; i < size; i++) {
-            if (!indices.contains(i)) { // 0 otherwise
-                input[i] = array[step];
-                step++;
+     * @param list  the list being built, filled in up to depth.
+     * @param depth  the number of places filled in so far.
+     * @param used  the bitmask of the inputs already in the list.
+     * @param range  the number of inputs of the set-up.
+     * @param lists  the lists found so far.
+     */
+    private void permutations(int[] list, int depth, int used, int range,
+                              List<List<Integer>> lists) {
+        if (depth == list.length) {
+            List<Integer> copy = new ArrayList<>(list.length);
+            for (int a : list)
+                copy.add(a);
+            lists.add(copy);
+            return;
+        }
+        for (int i = 0; i < range; i++) {
+            if ((used & (1 << i)) == 0) {
+                list[depth] = i;
+                permutations(list, depth + 1, used | (1 << i), range, lists);
             }
         }
-        return input;
     }
-
-    /**
-     * Returns all the possible lists that the given number of inputs can
-     * be normalised over.
-     * @param range  the number of inputs of the set-up.
-     * @return  lists
-     */
-   private List<List<Integer>> getAllLists(int range) {
-       List<List<Integer>> lists = new ArrayList<>();
-       // Empty list and [0, 1, ... range - 1[ aren't added.
-       for (int i = 1; i < range; i++) {
-           int max = (int) Math.pow(range, i);
-           for (int j = 0; j < max; j++) {
-
-               int[] array = Box.intToArray(j, i, range);
-               List<Integer> list = new ArrayList<>();
-               for (int a : array)
-                   list.add(a);
-
-               // Must ensure that elements such as [0, 0] aren't added.
-               boolean add = true;
-               for (int k = 0; k < range; k++) {
-                   if (Collections.frequency(list, k) > 1)
-                       add = false;
-               }
-               if (add)
-                   lists.add(list);
-           }
-       }
-       return lists;
-   }
 }
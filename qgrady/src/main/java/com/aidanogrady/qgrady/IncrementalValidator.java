@@ -0,0 +1,233 @@
+package com.aidanogrady.qgrady;
+
+import com.aidanogrady.qgrady.exceptions.SignallingException;
+import com.aidanogrady.qgrady.kernel.Kernel;
+import com.aidanogrady.qgrady.kernel.Kernels;
+import com.aidanogrady.qgrady.storage.ExactDistribution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The Incremental Validator checks a box in full once, then keeps the results
+ * up to date as rows of the box are changed, so that a change to a single row
+ * costs time in proportion to the row and the rows it is compared with rather
+ * than to the whole box.
+ *
+ * The problems found by SemanticAnalyser.validateDistribution are kept for
+ * each row. For non-signalling, the marginal of the other parties' outputs is
+ * kept for every row and every party, along with the rows with each party's
+ * input at 0 whose marginals disagree with those for the party's other inputs.
+ * Changing a row then means checking the row, and comparing its marginals with
+ * those of the rows differing from it only in the input of a single party.
+ *
+ * Keeping the marginals takes memory of the size of the box times the number
+ * of parties, divided by the output range. The storage of the box must allow
+ * its rows to be replaced, which views and exact boxes do not.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class IncrementalValidator {
+
+    /**
+     * The box being validated.
+     */
+    private final Box box;
+
+    /**
+     * The kernel checking values.
+     */
+    private final Kernel kernel;
+
+    /**
+     * Whether the box is exact and its numerators are summed.
+     */
+    private final boolean numerators;
+
+    /**
+     * The problems found in each row that has any, in order of row.
+     */
+    private final Map<Integer, List<String>> rowErrors = new TreeMap<>();
+
+    /**
+     * The column of each party's marginal that each column is summed into.
+     */
+    private final int[][] cols;
+
+    /**
+     * The number of columns in a marginal.
+     */
+    private final int size;
+
+    /**
+     * The marginal of each row for each party, one row after another.
+     */
+    private final double[][] marginals;
+
+    /**
+     * The rows with each party's input at 0 whose marginals disagree with
+     * those for the party's other inputs.
+     */
+    private final List<TreeSet<Integer>> signalling = new ArrayList<>();
+
+    /**
+     * Constructs a new validator for the given box, checking it in full.
+     *
+     * @param box  the box being validated.
+     */
+    public IncrementalValidator(Box box) {
+        this.box = box;
+        this.kernel = Kernels.get();
+        this.numerators = box.getDistribution() instanceof ExactDistribution;
+        int parties = box.getNoOfInputs();
+        this.size = box.getColumns() / box.getOutputRange();
+        this.cols = new int[parties][];
+        this.marginals = new double[parties][box.getRows() * size];
+
+        double[] slice = new double[size];
+        for (int i = 0; i < parties; i++) {
+            cols[i] = SemanticAnalyser.marginalColumns(box, i);
+            signalling.add(new TreeSet<>());
+            for (int row = 0; row < box.getRows(); row++) {
+                SemanticAnalyser.groupSlice(box.getDistribution(), row,
+                        cols[i], numerators, slice);
+                System.arraycopy(slice, 0, marginals[i], row * size, size);
+            }
+        }
+        for (int row = 0; row < box.getRows(); row++) {
+            validateRow(row);
+        }
+        for (int i = 0; i < parties; i++) {
+            int stride = box.getInputStride(i);
+            for (int row = 0; row < box.getRows(); row++) {
+                if (row / stride % box.getInputRange() == 0)
+                    compare(i, row);
+            }
+        }
+    }
+
+    /**
+     * Replaces the values of the given row of the box, updating the results
+     * affected by it.
+     *
+     * @param row  the row being replaced.
+     * @param values  the new values of the row.
+     */
+    public void setRow(int row, double[] values) {
+        box.setRow(row, values);
+        validateRow(row);
+        double[] slice = new double[size];
+        for (int i = 0; i < cols.length; i++) {
+            SemanticAnalyser.groupSlice(box.getDistribution(), row, cols[i],
+                    numerators, slice);
+            System.arraycopy(slice, 0, marginals[i], row * size, size);
+            int stride = box.getInputStride(i);
+            compare(i, row - row / stride % box.getInputRange() * stride);
+        }
+    }
+
+    /**
+     * Returns every problem with the distribution of the box, as
+     * SemanticAnalyser.validateDistribution would.
+     *
+     * @return a message for each problem found, empty if there are none.
+     */
+    public List<String> getErrors() {
+        List<String> errors = new ArrayList<>();
+        String amount = SemanticAnalyser.rowAmountError(box);
+        if (amount != null)
+            errors.add(amount);
+        for (List<String> messages : rowErrors.values()) {
+            errors.addAll(messages);
+        }
+        return errors;
+    }
+
+    /**
+     * Returns whether the box is non-signalling.
+     *
+     * @return true if no party signals.
+     */
+    public boolean isNonSignalling() {
+        for (TreeSet<Integer> rows : signalling) {
+            if (!rows.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the box is non-signalling, throwing the same exception as
+     * SemanticAnalyser.nonSignalling would if it is not.
+     *
+     * @throws SignallingException
+     */
+    public void nonSignalling() throws SignallingException {
+        for (int i = 0; i < signalling.size(); i++) {
+            if (signalling.get(i).isEmpty())
+                continue;
+            int row = signalling.get(i).first();
+            throw new SignallingException("Signalling found", i, row,
+                    violation(i, row));
+        }
+    }
+
+    /**
+     * Checks the given row, replacing the problems recorded for it.
+     *
+     * @param row  the row being checked.
+     */
+    private void validateRow(int row) {
+        List<String> errors = new ArrayList<>();
+        String length = SemanticAnalyser.rowLengthError(box, row);
+        if (length != null)
+            errors.add(length);
+        SemanticAnalyser.validateRow(box, row, kernel, errors);
+        if (errors.isEmpty())
+            rowErrors.remove(row);
+        else
+            rowErrors.put(row, errors);
+    }
+
+    /**
+     * Compares the marginal of the given row, which has the given party's
+     * input at 0, with those of the rows for the party's other inputs,
+     * recording whether they disagree.
+     *
+     * @param party  the party being checked.
+     * @param row  the row with the party's input at 0.
+     */
+    private void compare(int party, int row) {
+        if (violation(party, row) >= 0)
+            signalling.get(party).add(row);
+        else
+            signalling.get(party).remove(row);
+    }
+
+    /**
+     * Returns the first row whose marginal for the given party disagrees with
+     * that of the given row, or -1 if there is none.
+     *
+     * @param party  the party being checked.
+     * @param row  the row with the party's input at 0.
+     * @return other row, or -1
+     */
+    private int violation(int party, int row) {
+        int stride = box.getInputStride(party);
+        double[] marginal = marginals[party];
+        for (int x = 1; x < box.getInputRange(); x++) {
+            int other = row + x * stride;
+            if (other >= box.getRows())
+                continue;
+            for (int j = 0; j < size; j++) {
+                if (marginal[row * size + j] != marginal[other * size + j])
+                    return other;
+            }
+        }
+        return -1;
+    }
+}
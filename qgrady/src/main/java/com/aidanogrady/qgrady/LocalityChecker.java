@@ -0,0 +1,574 @@
+package com.aidanogrady.qgrady;
+
+import com.aidanogrady.qgrady.storage.Distribution;
+
+import java.util.Arrays;
+
+/**
+ * The LocalityChecker decides whether a box is local, that is whether it is a
+ * mixture of deterministic strategies, in each of which every party gives a
+ * fixed output for each of its inputs.
+ *
+ * This is a linear programme: find weights w, none negative, such that the
+ * sum of w times each strategy is the box. It is solved as the first phase of
+ * the revised simplex method, adding an artificial variable to every cell of
+ * the box and minimising their sum, which falls to zero exactly when the box
+ * is local.
+ *
+ * There are outputRange^(parties * inputRange) strategies, far too many to
+ * list for all but the smallest boxes, so none are listed at all. Instead,
+ * each iteration prices the strategies directly from the duals: for every
+ * strategy of all but the last party, the best output of the last party for
+ * each of its inputs is found independently, so only a fraction of the
+ * strategies are ever looked at. The strategy with the best reduced cost then
+ * enters the basis.
+ *
+ * Each strategy is held as the column it gives for each row, so a column of
+ * the programme holds a single one per row. The inverse of the basis is never
+ * formed. It is kept in product form instead, as a file of eta vectors, one
+ * for each pivot, each holding only the non-zero values of the column that
+ * entered. Every so often the file is rebuilt from the strategies in the
+ * basis alone, which keeps it short and rounding in check. Should pivots stop
+ * making progress, the checker falls back on Bland's rule, which is slower
+ * but cannot cycle. Boxes of more than MAX_SIZE cells are not checked at
+ * all.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+class LocalityChecker {
+
+    /**
+     * The sum of the artificial variables at or below which a box is local.
+     */
+    static final double TOLERANCE = 1e-9;
+
+    /**
+     * The smallest reduced cost taken as an improvement.
+     */
+    private static final double COST_EPSILON = 1e-9;
+
+    /**
+     * The smallest value of the entering column used as a pivot.
+     */
+    private static final double PIVOT_EPSILON = 1e-9;
+
+    /**
+     * The number of pivots between each rebuilding of the eta file.
+     */
+    private static final int REFACTOR = 100;
+
+    /**
+     * The most cells a box may have to be checked. Most constraints of larger
+     * programmes are redundant, and the degenerate pivots they cause leave
+     * them too slow to solve in any reasonable time.
+     */
+    static final int MAX_SIZE = 1024;
+
+    /**
+     * The box being checked.
+     */
+    private final Box box;
+
+    /**
+     * The number of rows of the box.
+     */
+    private final int rows;
+
+    /**
+     * The number of columns of the box.
+     */
+    private final int columns;
+
+    /**
+     * The number of constraints, one for each cell of the box.
+     */
+    private final int size;
+
+    /**
+     * The value of each cell of the box, row by row.
+     */
+    private final double[] target;
+
+    /**
+     * The input of each party in each row.
+     */
+    private final int[][] rowInputs;
+
+    /**
+     * The constraints each basic variable has a one in, or null for the
+     * artificial variable of the constraint of its position.
+     */
+    private final int[][] basis;
+
+    /**
+     * Whether each basic variable is artificial.
+     */
+    private final boolean[] artificial;
+
+    /**
+     * The index in the order of Bland's rule of each basic variable.
+     */
+    private final long[] order;
+
+    /**
+     * The position each eta vector pivots on.
+     */
+    private int[] etaPivots;
+
+    /**
+     * The value each eta vector has at its pivot.
+     */
+    private double[] etaPivotValues;
+
+    /**
+     * The position in etaIndices and etaValues at which each eta vector
+     * begins, with a trailing entry marking the end of the last.
+     */
+    private int[] etaStarts;
+
+    /**
+     * The position of each non-zero value of the eta vectors other than
+     * their pivots.
+     */
+    private int[] etaIndices;
+
+    /**
+     * Each non-zero value of the eta vectors other than their pivots.
+     */
+    private double[] etaValues;
+
+    /**
+     * The number of eta vectors.
+     */
+    private int etas;
+
+    /**
+     * The value of each basic variable.
+     */
+    private final double[] values;
+
+    /**
+     * Constructs a new checker for the given box.
+     *
+     * @param box  the box being checked.
+     * @throws IllegalArgumentException - If the box has too many cells.
+     */
+    LocalityChecker(Box box) {
+        this(box, 1.0);
+    }
+
+    /**
+     * Constructs a new checker for the given box mixed with white noise, the
+     * box having the given weight and the uniform distribution the rest. The
+     * mixed box is never built, only the cells of the programme.
+     *
+     * @param box  the box being checked.
+     * @param visibility  the weight of the box in the mixture.
+     * @throws IllegalArgumentException - If the box has too many cells.
+     */
+    LocalityChecker(Box box, double visibility) {
+        this.box = box;
+        rows = box.getRows();
+        columns = box.getColumns();
+        if ((long) rows * columns > MAX_SIZE)
+            throw new IllegalArgumentException("Locality is only checked for "
+                    + "boxes of up to " + MAX_SIZE + " cells, not "
+                    + (long) rows * columns);
+        size = rows * columns;
+
+        Distribution probs = box.getDistribution();
+        target = new double[size];
+        Arrays.fill(target, (1 - visibility) / columns);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < probs.getEntryCount(i); j++) {
+                int column = probs.getEntryColumn(i, j);
+                if (column < columns)
+                    target[i * columns + column] +=
+                            visibility * probs.getEntryValue(i, j);
+            }
+        }
+        rowInputs = new int[rows][];
+        for (int i = 0; i < rows; i++) {
+            rowInputs[i] = Box.intToArray(i, box.getNoOfInputs(),
+                    box.getInputRange());
+        }
+
+        basis = new int[size][];
+        artificial = new boolean[size];
+        order = new long[size];
+        values = target.clone();
+        for (int k = 0; k < size; k++) {
+            artificial[k] = true;
+            order[k] = k;
+        }
+        etaPivots = new int[REFACTOR];
+        etaPivotValues = new double[REFACTOR];
+        etaStarts = new int[REFACTOR + 1];
+        etaIndices = new int[size];
+        etaValues = new double[size];
+    }
+
+    /**
+     * Solves the programme, returning the least sum of the artificial
+     * variables, which is zero exactly when the box is local.
+     *
+     * @return residual
+     */
+    double solve() {
+        double[] duals = new double[size];
+        double[] column = new double[size];
+        int[] entering = new int[rows];
+        long[] index = new long[1];
+        int degenerate = 0;
+        int pivots = 0;
+        while (true) {
+            for (int k = 0; k < size; k++) {
+                duals[k] = artificial[k] ? 1 : 0;
+            }
+            backward(duals);
+
+            // A strategy with a one in a cell the box gives nothing to can
+            // never be given any weight, so is kept from entering.
+            for (int k = 0; k < size; k++) {
+                if (target[k] == 0)
+                    duals[k] = Double.NEGATIVE_INFINITY;
+            }
+
+            // Only artificial variables cost anything, so the reduced cost of
+            // a strategy is less the sum of the duals of its cells.
+            boolean bland = degenerate > size;
+            double score = bland ? firstStrategy(duals, entering, index)
+                    : bestStrategy(duals, entering, index);
+            if (score <= COST_EPSILON)
+                break;
+
+            Arrays.fill(column, 0);
+            for (int cell : entering) {
+                column[cell] = 1;
+            }
+            forward(column);
+            int leaving = leaving(column);
+            if (leaving < 0)
+                break;
+            degenerate = values[leaving] <= PIVOT_EPSILON ? degenerate + 1 : 0;
+            pivot(leaving, column, entering, index[0]);
+            if (++pivots % REFACTOR == 0)
+                refactor();
+        }
+
+        double residual = 0;
+        for (int k = 0; k < size; k++) {
+            if (artificial[k])
+                residual += values[k];
+        }
+        return residual;
+    }
+
+    /**
+     * Returns the cell of the given row that the given strategy gives a one
+     * in.
+     *
+     * @param strategy  the output of each party for each of its inputs.
+     * @param row  the row being examined.
+     * @return cell
+     */
+    private int cell(int[] strategy, int row) {
+        int column = 0;
+        int inputRange = box.getInputRange();
+        for (int i = 0; i < rowInputs[row].length; i++) {
+            column += strategy[i * inputRange + rowInputs[row][i]]
+                    * box.getOutputStride(i);
+        }
+        return row * columns + column;
+    }
+
+    /**
+     * Finds the strategy whose cells have the greatest sum of duals. The
+     * strategies of all but the last party are counted through, and for each
+     * the last party takes whichever output is best for each of its inputs.
+     *
+     * @param duals  the dual of each constraint.
+     * @param cells  receives the cell of each row of the strategy found.
+     * @param index  receives the index of the strategy found.
+     * @return the sum of the duals of the strategy found.
+     */
+    private double bestStrategy(double[] duals, int[] cells, long[] index) {
+        int parties = box.getNoOfInputs();
+        int inputRange = box.getInputRange();
+        int outputRange = box.getOutputRange();
+        int last = parties - 1;
+        int stride = box.getOutputStride(last);
+        MixedRadixCounter counter = new MixedRadixCounter(last * inputRange,
+                outputRange);
+        int[] strategy = new int[parties * inputRange];
+        int[] partial = new int[rows];
+        double[] gains = new double[inputRange * outputRange];
+
+        double best = Double.NEGATIVE_INFINITY;
+        do {
+            System.arraycopy(counter.digits(), 0, strategy, 0, counter.size());
+            for (int j = 0; j < gains.length; j++) {
+                gains[j] = 0;
+            }
+            for (int r = 0; r < rows; r++) {
+                int x = rowInputs[r][last];
+                strategy[last * inputRange + x] = 0;
+                partial[r] = cell(strategy, r);
+                for (int a = 0; a < outputRange; a++) {
+                    gains[x * outputRange + a] += duals[partial[r] + a * stride];
+                }
+            }
+
+            double score = 0;
+            for (int x = 0; x < inputRange; x++) {
+                int choice = 0;
+                for (int a = 1; a < outputRange; a++) {
+                    if (gains[x * outputRange + a]
+                            > gains[x * outputRange + choice])
+                        choice = a;
+                }
+                strategy[last * inputRange + x] = choice;
+                score += gains[x * outputRange + choice];
+            }
+            if (score > best) {
+                best = score;
+                for (int r = 0; r < rows; r++) {
+                    cells[r] = partial[r]
+                            + strategy[last * inputRange + rowInputs[r][last]]
+                            * stride;
+                }
+                index[0] = strategyIndex(strategy);
+            }
+        } while (counter.increment());
+        return best;
+    }
+
+    /**
+     * Finds the first strategy, in the order of Bland's rule, whose cells
+     * have a sum of duals above zero. Every strategy may be looked at, so
+     * this is only used once pivots have stopped making progress.
+     *
+     * @param duals  the dual of each constraint.
+     * @param cells  receives the cell of each row of the strategy found.
+     * @param index  receives the index of the strategy found.
+     * @return the sum of the duals of the strategy found, or 0 if none is.
+     */
+    private double firstStrategy(double[] duals, int[] cells, long[] index) {
+        int inputRange = box.getInputRange();
+        MixedRadixCounter counter = new MixedRadixCounter(
+                box.getNoOfInputs() * inputRange, box.getOutputRange());
+        do {
+            double score = 0;
+            for (int r = 0; r < rows; r++) {
+                score += duals[cell(counter.digits(), r)];
+            }
+            if (score > COST_EPSILON) {
+                for (int r = 0; r < rows; r++) {
+                    cells[r] = cell(counter.digits(), r);
+                }
+                index[0] = strategyIndex(counter.digits());
+                return score;
+            }
+        } while (counter.increment());
+        return 0;
+    }
+
+    /**
+     * Returns the index of the given strategy in the order of Bland's rule,
+     * strategies coming after every artificial variable.
+     *
+     * @param strategy  the output of each party for each of its inputs.
+     * @return index
+     */
+    private long strategyIndex(int[] strategy) {
+        long index = 0;
+        for (int digit : strategy) {
+            index = index * box.getOutputRange() + digit;
+        }
+        return size + index;
+    }
+
+    /**
+     * Returns the position of the basic variable leaving the basis as the
+     * given strategy enters it, or -1 if nothing limits the strategy. Of the
+     * positions limiting it most, an artificial variable is preferred, and
+     * then the variable earliest in the order of Bland's rule.
+     *
+     * @param column  the entering strategy in terms of the basis.
+     * @return leaving position, or -1
+     */
+    private int leaving(double[] column) {
+        int leaving = -1;
+        double ratio = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < size; k++) {
+            double u = column[k];
+            if (u <= PIVOT_EPSILON)
+                continue;
+            double r = Math.max(values[k], 0) / u;
+            if (leaving < 0 || r < ratio - PIVOT_EPSILON
+                    || (r <= ratio + PIVOT_EPSILON && prefer(k, leaving))) {
+                leaving = k;
+                ratio = r;
+            }
+        }
+        return leaving;
+    }
+
+    /**
+     * Returns whether the first basic variable is to leave rather than the
+     * second when both limit the entering strategy equally.
+     *
+     * @param a  the position of the first variable.
+     * @param b  the position of the second variable.
+     * @return true if the first is preferred.
+     */
+    private boolean prefer(int a, int b) {
+        if (artificial[a] != artificial[b])
+            return artificial[a];
+        return order[a] < order[b];
+    }
+
+    /**
+     * Replaces the given column by the inverse of the basis multiplied by it,
+     * applying each eta vector in the order they were added.
+     *
+     * @param column  the column being transformed.
+     */
+    private void forward(double[] column) {
+        for (int e = 0; e < etas; e++) {
+            int pivot = etaPivots[e];
+            if (column[pivot] == 0)
+                continue;
+            double t = column[pivot] / etaPivotValues[e];
+            column[pivot] = t;
+            for (int i = etaStarts[e]; i < etaStarts[e + 1]; i++) {
+                column[etaIndices[i]] -= etaValues[i] * t;
+            }
+        }
+    }
+
+    /**
+     * Replaces the given row by itself multiplied by the inverse of the
+     * basis, applying each eta vector in the reverse of the order they were
+     * added.
+     *
+     * @param row  the row being transformed.
+     */
+    private void backward(double[] row) {
+        for (int e = etas - 1; e >= 0; e--) {
+            int pivot = etaPivots[e];
+            double sum = row[pivot];
+            for (int i = etaStarts[e]; i < etaStarts[e + 1]; i++) {
+                sum -= etaValues[i] * row[etaIndices[i]];
+            }
+            row[pivot] = sum / etaPivotValues[e];
+        }
+    }
+
+    /**
+     * Adds an eta vector pivoting on the given position of the given column,
+     * keeping only its non-zero values.
+     *
+     * @param pivot  the position pivoted on.
+     * @param column  the entering column in terms of the basis.
+     */
+    private void addEta(int pivot, double[] column) {
+        if (etas == etaPivots.length) {
+            etaPivots = Arrays.copyOf(etaPivots, etas * 2);
+            etaPivotValues = Arrays.copyOf(etaPivotValues, etas * 2);
+            etaStarts = Arrays.copyOf(etaStarts, etas * 2 + 1);
+        }
+        int end = etaStarts[etas];
+        for (int k = 0; k < size; k++) {
+            if (k == pivot || column[k] == 0)
+                continue;
+            if (end == etaIndices.length) {
+                etaIndices = Arrays.copyOf(etaIndices, end * 2);
+                etaValues = Arrays.copyOf(etaValues, end * 2);
+            }
+            etaIndices[end] = k;
+            etaValues[end] = column[k];
+            end++;
+        }
+        etaPivots[etas] = pivot;
+        etaPivotValues[etas] = column[pivot];
+        etaStarts[++etas] = end;
+    }
+
+    /**
+     * Brings the given strategy into the basis in place of the variable at
+     * the given position, adding its eta vector and updating the values of
+     * the basis.
+     *
+     * @param leaving  the position of the leaving variable.
+     * @param column  the entering strategy in terms of the basis.
+     * @param cells  the cell of each row of the entering strategy.
+     * @param index  the index of the entering strategy.
+     */
+    private void pivot(int leaving, double[] column, int[] cells, long index) {
+        double t = values[leaving] / column[leaving];
+        for (int k = 0; k < size; k++) {
+            if (column[k] != 0)
+                values[k] -= column[k] * t;
+        }
+        values[leaving] = t;
+        addEta(leaving, column);
+        basis[leaving] = cells.clone();
+        artificial[leaving] = false;
+        order[leaving] = index;
+    }
+
+    /**
+     * Rebuilds the eta file from the strategies in the basis alone, and works
+     * out the values of the basic variables afresh. Starting from the
+     * artificial variables, each strategy is pivoted in on the largest of its
+     * values at a position not held by an artificial variable that stays in
+     * the basis, which may move strategies to new positions. Should rounding
+     * have left a strategy with no such value, it is dropped, its position
+     * going back to its artificial variable.
+     */
+    private void refactor() {
+        int[][] strategies = new int[size][];
+        long[] indices = new long[size];
+        int count = 0;
+        boolean[] held = new boolean[size];
+        for (int k = 0; k < size; k++) {
+            if (artificial[k]) {
+                held[k] = true;
+            } else {
+                strategies[count] = basis[k];
+                indices[count++] = order[k];
+            }
+            basis[k] = null;
+            artificial[k] = true;
+            order[k] = k;
+        }
+
+        etas = 0;
+        double[] column = new double[size];
+        for (int s = 0; s < count; s++) {
+            Arrays.fill(column, 0);
+            for (int cell : strategies[s]) {
+                column[cell] = 1;
+            }
+            forward(column);
+            int pivot = -1;
+            for (int k = 0; k < size; k++) {
+                if (!held[k] && (pivot < 0
+                        || Math.abs(column[k]) > Math.abs(column[pivot])))
+                    pivot = k;
+            }
+            if (pivot < 0 || Math.abs(column[pivot]) <= PIVOT_EPSILON)
+                continue;
+            addEta(pivot, column);
+            held[pivot] = true;
+            basis[pivot] = strategies[s];
+            artificial[pivot] = false;
+            order[pivot] = indices[s];
+        }
+
+        System.arraycopy(target, 0, values, 0, size);
+        forward(values);
+    }
+}
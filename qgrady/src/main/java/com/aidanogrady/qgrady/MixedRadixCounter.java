@@ -0,0 +1,137 @@
+package com.aidanogrady.qgrady;
+
+/**
+ * A mixed-radix counter that steps through every assignment of values to a
+ * fixed number of digits, most significant digit first, in the same order as
+ * counting through Box.intToArray. The digits are updated in place, so a
+ * single counter can be used to enumerate millions of assignments without
+ * allocating.
+ *
+ * Alongside the digits, the counter keeps a linear index in step, being the
+ * sum of each digit multiplied by its weight. By default the weights are the
+ * place values of the digits, so the index is simply the count so far, but
+ * other weights can be given so that the index follows the strides of a box.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class MixedRadixCounter {
+
+    /**
+     * The number of values each digit can take.
+     */
+    private final int[] radices;
+
+    /**
+     * The amount each digit contributes to the index.
+     */
+    private final int[] weights;
+
+    /**
+     * The current value of each digit.
+     */
+    private final int[] digits;
+
+    /**
+     * The weighted sum of the current digits.
+     */
+    private int index;
+
+    /**
+     * Constructs a new counter of the given amount of digits, all of the given
+     * base, with the index being the plain count.
+     *
+     * @param size  the number of digits.
+     * @param base  the base of every digit.
+     */
+    public MixedRadixCounter(int size, int base) {
+        radices = new int[size];
+        weights = new int[size];
+        int weight = 1;
+        for (int i = size - 1; i >= 0; i--) {
+            radices[i] = base;
+            weights[i] = weight;
+            weight *= base;
+        }
+        digits = new int[size];
+    }
+
+    /**
+     * Constructs a new counter with the given radix and weight for each digit.
+     *
+     * @param radices  the number of values each digit can take.
+     * @param weights  the amount each digit contributes to the index.
+     */
+    public MixedRadixCounter(int[] radices, int[] weights) {
+        this.radices = radices.clone();
+        this.weights = weights.clone();
+        digits = new int[radices.length];
+    }
+
+    /**
+     * Moves the counter on to the next assignment. Once every assignment has
+     * been visited the counter wraps back round to all zeros and false is
+     * returned, so the counter is ready to be used again.
+     *
+     * @return false if the counter has wrapped round.
+     */
+    public boolean increment() {
+        for (int i = digits.length - 1; i >= 0; i--) {
+            if (++digits[i] < radices[i]) {
+                index += weights[i];
+                return true;
+            }
+            digits[i] = 0;
+            index -= (radices[i] - 1) * weights[i];
+        }
+        return false;
+    }
+
+    /**
+     * Sets every digit back to zero.
+     */
+    public void reset() {
+        for (int i = 0; i < digits.length; i++) {
+            digits[i] = 0;
+        }
+        index = 0;
+    }
+
+    /**
+     * Returns the current value of the given digit.
+     *
+     * @param i  the position of the digit.
+     * @return digit
+     */
+    public int digit(int i) {
+        return digits[i];
+    }
+
+    /**
+     * Returns the current digits. The array is the counter's own, and changes
+     * with every increment, so it must not be modified or kept.
+     *
+     * @return digits
+     */
+    public int[] digits() {
+        return digits;
+    }
+
+    /**
+     * Returns the number of digits in this counter.
+     *
+     * @return size
+     */
+    public int size() {
+        return digits.length;
+    }
+
+    /**
+     * Returns the weighted sum of the current digits.
+     *
+     * @return index
+     */
+    public int index() {
+        return index;
+    }
+}
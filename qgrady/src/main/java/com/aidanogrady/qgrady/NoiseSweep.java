@@ -0,0 +1,416 @@
+package com.aidanogrady.qgrady;
+
+import com.aidanogrady.qgrady.exceptions.SignallingException;
+import com.aidanogrady.qgrady.kernel.Kernel;
+import com.aidanogrady.qgrady.kernel.Kernels;
+import com.aidanogrady.qgrady.storage.Distribution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A NoiseSweep finds how a box fares as it is mixed with white noise, giving
+ * v * box + (1 - v) * uniform for each visibility v of a grid, where the
+ * uniform distribution gives every output equally for every input.
+ *
+ * None of the mixed boxes are ever built. Every property looked at is linear
+ * in the box, or is decided by something that is, so each can be found for
+ * any mixture from figures worked out once for the box itself:
+ * <ul>
+ *     <li>a mixed value lies between the mixtures of the smallest and largest
+ *     values of the box, so those two decide whether every value is in
+ *     range, and the smallest and largest row sums likewise decide whether
+ *     every row sums to 1;</li>
+ *     <li>marginals of a mixture are the same mixture of the marginals, and
+ *     the uniform marginals never signal, so a mixture signals exactly when
+ *     the box does and v is not 0;</li>
+ *     <li>the value of a Bell expression is the same mixture of its values
+ *     for the box and for white noise.</li>
+ * </ul>
+ * Locality alone has to be decided afresh for each visibility, with the
+ * cells of the mixture given straight to the LocalityChecker.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class NoiseSweep {
+
+    /**
+     * The box being mixed with noise.
+     */
+    private final Box box;
+
+    /**
+     * The smallest value of the box.
+     */
+    private final double min;
+
+    /**
+     * The largest value of the box.
+     */
+    private final double max;
+
+    /**
+     * The smallest row sum of the box.
+     */
+    private final double minSum;
+
+    /**
+     * The largest row sum of the box.
+     */
+    private final double maxSum;
+
+    /**
+     * Whether the box is non-signalling.
+     */
+    private final boolean nonSignalling;
+
+    /**
+     * The value of the Bell expression for the box, or NaN if there is none.
+     */
+    private final double value;
+
+    /**
+     * The value of the Bell expression for white noise, or NaN if there is
+     * none.
+     */
+    private final double noiseValue;
+
+    /**
+     * Constructs a new sweep of the given box, working out everything about
+     * the box the mixtures depend on. The box must have the right number of
+     * rows, each of the right length.
+     *
+     * @param box  the box being mixed with noise.
+     * @param expression  the Bell expression evaluated, or null if there is
+     *                    none.
+     */
+    public NoiseSweep(Box box, BellExpression expression) {
+        if (SemanticAnalyser.rowAmountError(box) != null)
+            throw new IllegalArgumentException(
+                    SemanticAnalyser.rowAmountError(box));
+        for (int i = 0; i < box.getRows(); i++) {
+            if (SemanticAnalyser.rowLengthError(box, i) != null)
+                throw new IllegalArgumentException(
+                        SemanticAnalyser.rowLengthError(box, i));
+        }
+        this.box = box;
+
+        Distribution probs = box.getDistribution();
+        Kernel kernel = Kernels.get();
+        boolean[] seen = new boolean[probs.getRowClasses()];
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double minSum = Double.POSITIVE_INFINITY;
+        double maxSum = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < probs.getRows(); i++) {
+            if (seen[probs.getRowClass(i)])
+                continue;
+            seen[probs.getRowClass(i)] = true;
+            int count = probs.getEntryCount(i);
+            double[] array = probs.getEntryArray(i);
+            double sum = 0;
+            if (count < probs.getRowLength(i)) {
+                min = Math.min(min, 0);
+                max = Math.max(max, 0);
+            }
+            for (int j = 0; j < count; j++) {
+                double v = probs.getEntryValue(i, j);
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                if (array == null)
+                    sum += v;
+            }
+            if (array != null) {
+                int offset = probs.getEntryOffset(i);
+                sum = kernel.sum(array, offset, offset + count);
+            }
+            minSum = Math.min(minSum, sum);
+            maxSum = Math.max(maxSum, sum);
+        }
+        this.min = min;
+        this.max = max;
+        this.minSum = minSum;
+        this.maxSum = maxSum;
+
+        boolean nonSignalling = true;
+        try {
+            SemanticAnalyser.nonSignalling(box);
+        } catch (SignallingException e) {
+            nonSignalling = false;
+        }
+        this.nonSignalling = nonSignalling;
+
+        value = expression == null ? Double.NaN : expression.evaluate(box);
+        noiseValue = expression == null ? Double.NaN
+                : expression.uniformValue();
+    }
+
+    /**
+     * Returns the given number of steps between visibilities 0 and 1, both
+     * included.
+     *
+     * @param steps  the number of steps.
+     * @return visibilities
+     */
+    public static double[] grid(int steps) {
+        double[] visibilities = new double[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            visibilities[i] = (double) i / steps;
+        }
+        return visibilities;
+    }
+
+    /**
+     * Returns the results for the box mixed with noise at the given
+     * visibility.
+     *
+     * @param visibility  the weight of the box in the mixture.
+     * @param locality  whether the mixture is checked for locality.
+     * @return results
+     */
+    public Result evaluate(double visibility, boolean locality) {
+        double noise = (1 - visibility) / box.getColumns();
+        boolean valid = visibility * min + noise >= 0.0
+                && visibility * max + noise <= 1.0
+                && !SemanticAnalyser.invalidSum(
+                        visibility * minSum + (1 - visibility),
+                        box.getColumns())
+                && !SemanticAnalyser.invalidSum(
+                        visibility * maxSum + (1 - visibility),
+                        box.getColumns());
+        boolean signalling = visibility != 0 && !nonSignalling;
+        double mixed = visibility * value + (1 - visibility) * noiseValue;
+
+        Boolean local = null;
+        if (locality) {
+            local = valid && !signalling && new LocalityChecker(box, visibility)
+                    .solve() <= LocalityChecker.TOLERANCE;
+        }
+        return new Result(visibility, valid, !signalling, mixed, local);
+    }
+
+    /**
+     * Returns the results for the box mixed with noise at each of the given
+     * visibilities, in the order given. The visibilities are shared between
+     * the given number of threads.
+     *
+     * @param visibilities  the weights of the box in each mixture.
+     * @param locality  whether each mixture is checked for locality.
+     * @param threads  the number of threads used.
+     * @return results
+     */
+    public List<Result> sweep(double[] visibilities, boolean locality,
+                              int threads) {
+        Result[] results = new Result[visibilities.length];
+        if (threads <= 1) {
+            for (int i = 0; i < visibilities.length; i++) {
+                results[i] = evaluate(visibilities[i], locality);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new SweepTask(visibilities, locality, results, 0,
+                        visibilities.length));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    /**
+     * Returns the given results laid out as a table, a line for each
+     * visibility. Columns that were not worked out are shown as dashes.
+     *
+     * @param results  the results being laid out.
+     * @return table
+     */
+    public static String table(List<Result> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%10s  %-5s  %-14s  %10s  %s%n", "visibility",
+                "valid", "non-signalling", "value", "local"));
+        for (Result r : results) {
+            sb.append(String.format("%10.4f  %-5s  %-14s  %10s  %s%n",
+                    r.getVisibility(), yesNo(r.isValid()),
+                    yesNo(r.isNonSignalling()),
+                    Double.isNaN(r.getValue()) ? "-"
+                            : String.format("%.4f", r.getValue()),
+                    r.isLocal() == null ? "-" : yesNo(r.isLocal())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns yes or no for the given flag.
+     *
+     * @param flag  the flag being shown.
+     * @return yes or no
+     */
+    private static String yesNo(boolean flag) {
+        return flag ? "yes" : "no";
+    }
+
+    /**
+     * The results for the box mixed with noise at a single visibility.
+     */
+    public static class Result {
+
+        /**
+         * The weight of the box in the mixture.
+         */
+        private final double visibility;
+
+        /**
+         * Whether every value is in range and every row sums to 1.
+         */
+        private final boolean valid;
+
+        /**
+         * Whether the mixture is non-signalling.
+         */
+        private final boolean nonSignalling;
+
+        /**
+         * The value of the Bell expression, or NaN if there is none.
+         */
+        private final double value;
+
+        /**
+         * Whether the mixture is local, or null if it was not checked.
+         */
+        private final Boolean local;
+
+        /**
+         * Constructs a new set of results.
+         *
+         * @param visibility  the weight of the box in the mixture.
+         * @param valid  whether the values and row sums are valid.
+         * @param nonSignalling  whether the mixture is non-signalling.
+         * @param value  the value of the Bell expression.
+         * @param local  whether the mixture is local, or null.
+         */
+        private Result(double visibility, boolean valid, boolean nonSignalling,
+                       double value, Boolean local) {
+            this.visibility = visibility;
+            this.valid = valid;
+            this.nonSignalling = nonSignalling;
+            this.value = value;
+            this.local = local;
+        }
+
+        /**
+         * Returns the weight of the box in the mixture.
+         *
+         * @return visibility
+         */
+        public double getVisibility() {
+            return visibility;
+        }
+
+        /**
+         * Returns whether every value is in range and every row sums to 1.
+         *
+         * @return true if the mixture is valid.
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Returns whether the mixture is non-signalling.
+         *
+         * @return true if the mixture is non-signalling.
+         */
+        public boolean isNonSignalling() {
+            return nonSignalling;
+        }
+
+        /**
+         * Returns the value of the Bell expression, or NaN if there is none.
+         *
+         * @return value
+         */
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * Returns whether the mixture is local, or null if it was not checked.
+         *
+         * @return local
+         */
+        public Boolean isLocal() {
+            return local;
+        }
+    }
+
+    /**
+     * A task working out the results for a range of the visibilities, split
+     * in half until a single visibility is left.
+     */
+    @SuppressWarnings("serial")
+    private class SweepTask extends RecursiveAction {
+
+        /**
+         * The visibilities of the sweep.
+         */
+        private final double[] visibilities;
+
+        /**
+         * Whether each mixture is checked for locality.
+         */
+        private final boolean locality;
+
+        /**
+         * The results for each visibility, once worked out.
+         */
+        private final Result[] results;
+
+        /**
+         * The first visibility worked out.
+         */
+        private final int from;
+
+        /**
+         * The visibility after the last worked out.
+         */
+        private final int to;
+
+        /**
+         * Constructs a new task for the given range of visibilities.
+         *
+         * @param visibilities  the visibilities of the sweep.
+         * @param locality  whether each mixture is checked for locality.
+         * @param results  the results for each visibility.
+         * @param from  the first visibility worked out.
+         * @param to  the visibility after the last worked out.
+         */
+        private SweepTask(double[] visibilities, boolean locality,
+                          Result[] results, int from, int to) {
+            this.visibilities = visibilities;
+            this.locality = locality;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int i = from; i < to; i++) {
+                    results[i] = evaluate(visibilities[i], locality);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SweepTask(visibilities, locality, results, from,
+                                middle),
+                        new SweepTask(visibilities, locality, results, middle,
+                                to));
+            }
+        }
+    }
+}
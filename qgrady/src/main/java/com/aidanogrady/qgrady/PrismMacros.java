@@ -6,7 +6,9 @@ import java.util.List;
 
 /**
  * The PrismMacros class handles all the string manipulation required to
- * create the Prism model generated by the compiler.
+ * create the Prism model generated by the compiler. Statements are built by
+ * plain concatenation, rather than by substituting into templates, as they
+ * are made millions of times for large boxes.
  *
  * @author Aidan O'Grady
  * @since 0.7
@@ -28,34 +30,15 @@ public class PrismMacros {
     public static final String END_MODULE = "endmodule";
 
     /**
-     * A placeholder for where the sync label would be.
+     * The separator between the conditions of a guard, or the updates of an
+     * action.
      */
-    private static final String SYNC = "<SYNC>";
+    public static final String AND = " & ";
 
     /**
-     * A placeholder for where the guard of an command would.
+     * The separator between the possible updates of an action.
      */
-    private static final String GUARD = "<GUARD>";
-
-    /**
-     * A placeholder for where the action of a command would be.
-     */
-    private static final String ACTION = "<ACTION>";
-
-    /**
-     * A placeholder for where the variable of an action would be.
-     */
-    private static final String VAR = "<VAR>";
-
-    /**
-     * A placeholder for where the value of an action would be.
-     */
-    private static final String VAL = "<VAL>";
-
-    /**
-     * A placeholder for the initial value of a variable would be.
-     */
-    private static final String INIT = "<INIT>";
+    public static final String CHOICE = " + ";
 
     /**
      * Returns the PRISM statement of a variable declaration.
@@ -66,10 +49,7 @@ public class PrismMacros {
      * @return  PRISM variable declaration
      */
     public static String varDec(String variable, int range, int init) {
-        String varDec = "\t<VAR> : [-1..<VAL>] init <INIT>;";
-        return varDec.replaceAll(VAL, Integer.toString(range))
-                .replaceAll(INIT, Integer.toString(init))
-                .replaceAll(VAR, variable);
+        return "\t" + variable + " : [-1.." + range + "] init " + init + ";";
     }
 
     /**
@@ -80,10 +60,7 @@ public class PrismMacros {
      * @return  PRISM variable declaration
      */
     public static String varDec(String variable, boolean init) {
-        String varDec = "\t<VAR> : bool init <INIT>;";
-        return varDec.replaceAll(INIT, Boolean.toString(init))
-                .replaceAll(VAR, variable);
-
+        return "\t" + variable + " : bool init " + init + ";";
     }
 
     /**
@@ -95,10 +72,42 @@ public class PrismMacros {
      * @return  PRISM statement.
      */
     public static String command(String sync, String guard, String action) {
-        String command = "\t[<SYNC>] <GUARD> -> <ACTION>;";
-        return command.replaceAll(SYNC, sync)
-                .replaceAll(GUARD, guard)
-                .replaceAll(ACTION, action);
+        StringBuilder sb = beginCommand(new StringBuilder(), sync);
+        return endCommand(beginAction(sb.append(guard)).append(action))
+                .toString();
+    }
+
+    /**
+     * Appends the start of a PRISM statement with the given sync to the given
+     * buffer, leaving it ready for the guard.
+     *
+     * @param sb  the buffer the statement is built in.
+     * @param sync  the label of the sync of this statement.
+     * @return  the buffer.
+     */
+    public static StringBuilder beginCommand(StringBuilder sb, String sync) {
+        return sb.append("\t[").append(sync).append("] ");
+    }
+
+    /**
+     * Appends the arrow separating the guard of a PRISM statement from its
+     * actions to the given buffer.
+     *
+     * @param sb  the buffer the statement is built in.
+     * @return  the buffer.
+     */
+    public static StringBuilder beginAction(StringBuilder sb) {
+        return sb.append(" -> ");
+    }
+
+    /**
+     * Appends the end of a PRISM statement to the given buffer.
+     *
+     * @param sb  the buffer the statement is built in.
+     * @return  the buffer.
+     */
+    public static StringBuilder endCommand(StringBuilder sb) {
+        return sb.append(';');
     }
 
     /**
@@ -110,9 +119,7 @@ public class PrismMacros {
      * @return PRISM condition.
      */
     public static String isEqual(String variable, int value) {
-        String isEqual = "(<VAR> = <VAL>)";
-        return isEqual.replaceAll(VAR, variable)
-                .replaceAll(VAL, Integer.toString(value));
+        return "(" + variable + " = " + value + ")";
     }
 
     /**
@@ -124,9 +131,7 @@ public class PrismMacros {
      * @return PRISM condition.
      */
     public static String isEqual(String variable, boolean value) {
-        String isEqual = "(<VAR> = <VAL>)";
-        return isEqual.replaceAll(VAR, variable)
-                .replaceAll(VAL, Boolean.toString(value));
+        return "(" + variable + " = " + value + ")";
     }
 
     /**
@@ -138,9 +143,7 @@ public class PrismMacros {
      * @return PRISM condition.
      */
     public static String isNotEqual(String variable, int value) {
-        String isNotEqual = "(<VAR> = <VAL>)";
-        return isNotEqual.replaceAll(VAR, variable)
-                .replaceAll(VAL, Integer.toString(value));
+        return "(" + variable + " = " + value + ")";
     }
 
     /**
@@ -152,9 +155,7 @@ public class PrismMacros {
      * @return PRISM condition.
      */
     public static String isNotEqual(String variable, boolean value) {
-        String isNotEqual = "(<VAR> = <VAL>)";
-        return isNotEqual.replaceAll(VAR, variable)
-                .replaceAll(VAL, Boolean.toString(value));
+        return "(" + variable + " = " + value + ")";
     }
 
     /**
@@ -165,9 +166,21 @@ public class PrismMacros {
      * @return  action
      */
     public static String prob(double prob, String action) {
-        String update = "<VAL> : <ACTION>";
-        return update.replaceAll(VAL, Double.toString(prob))
-                .replaceAll(ACTION, action);
+        return appendProb(new StringBuilder(), prob, action).toString();
+    }
+
+    /**
+     * Appends an action with the given probability of that action happening
+     * to the given buffer.
+     *
+     * @param sb  the buffer the statement is built in.
+     * @param prob  the probability of the action occurring.
+     * @param action  the action being performed.
+     * @return  the buffer.
+     */
+    public static StringBuilder appendProb(StringBuilder sb, double prob,
+                                           String action) {
+        return sb.append(prob).append(" : ").append(action);
     }
 
     /**
@@ -178,9 +191,7 @@ public class PrismMacros {
      * @return  update
      */
     public static String assign(String variable, int value) {
-        String assign = "(<VAR>' = <VAL>)";
-        return assign.replaceAll(VAL, Integer.toString(value))
-                .replaceAll(VAR, variable);
+        return "(" + variable + "' = " + value + ")";
     }
 
 
@@ -192,10 +203,7 @@ public class PrismMacros {
      * @return  update
      */
     public static String assign(String variable, boolean value) {
-        String assign = "(<VAR>' = <VAL>)";
-        return assign.replaceAll(VAL, Boolean.toString(value))
-                .replaceAll(VAR, variable);
-
+        return "(" + variable + "' = " + value + ")";
     }
 
     /**
@@ -226,15 +234,15 @@ public class PrismMacros {
      */
     public static String listToString(List<String> list, char separator) {
         String sep = " " + separator + " ";
-        String string = "";
+        StringBuilder string = new StringBuilder();
         Iterator it = list.iterator();
         if(it.hasNext()) {
-            string += it.next();
+            string.append(it.next());
         }
         while(it.hasNext()) {
-            string += sep;
-            string += it.next();
+            string.append(sep);
+            string.append(it.next());
         }
-        return string;
+        return string.toString();
     }
 }
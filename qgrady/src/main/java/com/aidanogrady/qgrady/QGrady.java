@@ -1,6 +1,7 @@
 package com.aidanogrady.qgrady;
 
 import com.aidanogrady.qgrady.exceptions.*;
+import com.aidanogrady.qgrady.storage.DistributionBuilder;
 import com.aidanogrady.qgrady.syntax.*;
 import com.aidanogrady.qgrady.syntax.Parser;
 import org.apache.commons.cli.*;
@@ -9,6 +10,8 @@ import org.apache.commons.io.FilenameUtils;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.util.List;
+import java.util.Objects;
 
 /**
  * The entry point of the compiler. It handles the program arguments, to
@@ -21,6 +24,11 @@ import java.io.FileReader;
  */
 public class QGrady {
 
+    /**
+     * The version of the compiler.
+     */
+    public static final String VERSION = "0.5.1";
+
     /**
      * The argument options available for this system.
      */
@@ -28,11 +36,21 @@ public class QGrady {
 
 
     /**
-     * Creates and returns the options for the program. There are four options
+     * Creates and returns the options for the program. There are twelve options
      * available to the user:
      * <ul>
      *     <li>file - the source Q'Grady file to be compiled.</li>
      *     <li>output - the destination PRISM file.</li>
+     *     <li>mapped - keeps the distribution in a memory-mapped file.</li>
+     *     <li>exact - stores probabilities as fractions where possible.</li>
+     *     <li>threads - the number of threads checking and generating the
+     *     box.</li>
+     *     <li>groups - checks every group of parties for signalling.</li>
+     *     <li>local - checks whether the box is local.</li>
+     *     <li>sweep - tabulates the box mixed with noise instead of writing
+     *     it.</li>
+     *     <li>cache - keeps the results of analysis in a directory.</li>
+     *     <li>cache-size - bounds the size of the cache, in megabytes.</li>
      *     <li>help - displays the help dialogue to the user.</li>
      *     <li>version - shows program version history.</li>
      * </ul>
@@ -48,6 +66,31 @@ public class QGrady {
         options.addOption(Option.builder("o").longOpt("output").hasArg(true)
                 .argName("file").desc("places output to <file>")
                 .build());
+        options.addOption(Option.builder("m").longOpt("mapped")
+                .desc("keeps the distribution in a memory-mapped file")
+                .build());
+        options.addOption(Option.builder("e").longOpt("exact")
+                .desc("stores probabilities as exact fractions")
+                .build());
+        options.addOption(Option.builder("t").longOpt("threads").hasArg(true)
+                .argName("n").desc("checks and generates the box on <n> threads")
+                .build());
+        options.addOption(Option.builder("g").longOpt("groups")
+                .desc("checks every group of parties for signalling")
+                .build());
+        options.addOption(Option.builder("l").longOpt("local")
+                .desc("checks whether the box is local")
+                .build());
+        options.addOption(Option.builder("s").longOpt("sweep").hasArg(true)
+                .argName("steps")
+                .desc("tabulates the box mixed with noise in <steps> steps")
+                .build());
+        options.addOption(Option.builder("c").longOpt("cache").hasArg(true)
+                .argName("dir").desc("keeps the results of analysis in <dir>")
+                .build());
+        options.addOption(Option.builder().longOpt("cache-size").hasArg(true)
+                .argName("mb").desc("bounds the cache to <mb> megabytes")
+                .build());
         options.addOption(Option.builder("h").longOpt("help")
                 .desc("prints this message").build());
         options.addOption(Option.builder("v").longOpt("version")
@@ -77,71 +120,217 @@ public class QGrady {
                 String output = line.getOptionValue("o");
                 File source = validateInput(input);
                 File dest = validateOutput(output, input);
-                Box box = parse(source);
-                if(box != null)
-                    codeGeneration(box, dest);
-                else
-                    System.out.println("Exiting system. Goodbye!");
+                int threads = validateThreads(line.getOptionValue("t"));
+                int steps = validateSteps(line.getOptionValue("s"));
+                AnalysisCache cache = validateCache(line.getOptionValue("c"),
+                        line.getOptionValue("cache-size"));
+                compile(source, dest, line.hasOption("m"), line.hasOption("e"),
+                        threads, line.hasOption("g"), line.hasOption("l"),
+                        steps, cache);
             }
         } catch(ParseException e) {
             System.out.println("qgrady: no input file");
             help();
         } catch (FileNotFoundException | InvalidFileTypeException e) {
             System.err.println(e.getMessage());
+        } catch (NumberFormatException e) {
+            System.err.println("qgrady: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Compiles the given Q'Grady file into the given PRISM file. Should a
+     * cache be given, the analysis of a box that has been compiled before is
+     * taken from it rather than being done again.
+     *
+     * @param source  the Q'Grady file being compiled.
+     * @param dest  the .prism file to be written.
+     * @param mapped  whether the distribution is kept in a memory-mapped file.
+     * @param exact  whether probabilities are stored as exact fractions.
+     * @param threads  the number of threads checking non-signalling.
+     * @param groups  whether every group of parties is checked for signalling.
+     * @param local  whether the box is checked for locality.
+     * @param steps  the number of steps of the noise sweep, or 0 for none.
+     * @param cache  the cache of analyses, or null if there is none.
+     */
+    private void compile(File source, File dest, boolean mapped, boolean exact,
+                         int threads, boolean groups, boolean local,
+                         int steps, AnalysisCache cache) {
+        Box box = parse(source, mapped, exact);
+        if (box == null) {
+            System.out.println("Exiting system. Goodbye!");
+            return;
+        }
+
+        String key = null;
+        AnalysisCache.Analysis analysis = null;
+        if (cache != null) {
+            key = AnalysisCache.key(box, groups);
+            analysis = cache.get(key, box);
+            if (analysis != null)
+                System.out.println("Using cached analysis of "
+                        + source.getName() + ".");
+        }
+        boolean cached = analysis != null;
+        if (!cached)
+            analysis = analyse(box, threads, groups);
+        Boolean known = cached ? analysis.getLocal() : null;
+        List<Integer> found = cached ? AnalysisCache.knownMarginals(box) : null;
+
+        if (analysis == null || !analysis.isValid()) {
+            if (analysis != null) {
+                report(box, analysis);
+                if (cache != null && !cached)
+                    cache.put(key, analysis, box);
+            }
+            System.out.println("Exiting system. Goodbye!");
+            return;
+        }
+        if (local) {
+            System.out.print("Checking locality... ");
+            try {
+                if (analysis.getLocal() == null)
+                    analysis.setLocal(SemanticAnalyser.isLocal(box));
+                System.out.println(analysis.getLocal() ? "Local."
+                        : "Non-local.");
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage() + ".");
+                local = false;
+            }
         }
+        if (steps > 0)
+            sweep(box, steps, local, threads);
+        else
+            codeGeneration(box, dest, threads);
+
+        // A hit is only written back should this run have learnt something
+        // the entry does not hold.
+        if (cache != null && (!cached
+                || !Objects.equals(analysis.getLocal(), known)
+                || !AnalysisCache.knownMarginals(box).equals(found)))
+            cache.put(key, analysis, box);
     }
 
 
     /**
-     * Performs syntax checking and semantic analysis on the given Q'Grady file.
-     * This method determines whether we have been given a valid non-local box
-     * that conforms to the restraints imposed upon it and returns said box.
+     * Performs syntax checking on the given Q'Grady file, returning the
+     * non-local box it describes.
      *
      * @param source  the Q'Grady file being compiled
-     * @return non-local box extracted form source.
+     * @param mapped  whether the distribution is kept in a memory-mapped file.
+     * @param exact  whether probabilities are stored as exact fractions.
+     * @return non-local box extracted form source, or null if there is none.
      */
-    private Box parse(File source) {
+    private Box parse(File source, boolean mapped, boolean exact) {
         try {
             Parser p = new Parser(new Lexer(new FileReader(source.getPath())));
+            if (mapped)
+                p.setBuilder(new DistributionBuilder(0));
+            p.getBuilder().setExact(exact);
             Object result = p.parse().value;
-            Box box = (Box) result;
+            return (Box) result;
+        } catch (Error e) {
+            String msg = e.getMessage().replace('<', '\'').replace('>', '\'');
+            System.out.println("Cannot continue: " + msg);
+        } catch (FileNotFoundException e) {
+            System.out.println("Cannot continue, file missing.");
+        } catch (Exception e) {
+            System.out.println("Cannot continue, unknown error: " + e.getMessage());
+        }
+        return null;
+    }
+
 
+    /**
+     * Performs semantic analysis on the given box, determining whether it
+     * conforms to the restraints imposed upon it. Analysis stops at the first
+     * check that fails, and the problems found are left to be reported.
+     *
+     * @param box  the box being analysed.
+     * @param threads  the number of threads checking non-signalling.
+     * @param groups  whether every group of parties is checked for signalling.
+     * @return analysis of the box, or null if it could not be completed.
+     */
+    private AnalysisCache.Analysis analyse(Box box, int threads,
+                                           boolean groups) {
+        AnalysisCache.Analysis analysis = new AnalysisCache.Analysis();
+        try {
             System.out.print("Checking variables... ");
             SemanticAnalyser.validateVariables(box);
             System.out.println("OK!");
 
-            System.out.print("Checking values... ");
-            SemanticAnalyser.validateValues(box.getProbs());
-            System.out.println("OK!");
-
-            System.out.print("Checking number of rows... ");
-            SemanticAnalyser.validateRowAmount(box);
-            System.out.println("OK!");
-
-            System.out.print("Checking row lengths... ");
-            SemanticAnalyser.validateRowLengths(box);
-            System.out.println("OK!");
-
-            System.out.print("Checking row sums... ");
-            SemanticAnalyser.validateRowSums(box.getProbs());
+            System.out.print("Checking distribution... ");
+            List<String> errors = SemanticAnalyser.validateDistribution(box);
+            if (!errors.isEmpty()) {
+                analysis.getErrors().addAll(errors);
+                return analysis;
+            }
             System.out.println("OK!");
 
             System.out.print("Checking for non-signalling... ");
-            SemanticAnalyser.nonSignalling(box);
+            if (groups)
+                SemanticAnalyser.nonSignallingGroups(box);
+            else
+                SemanticAnalyser.nonSignalling(box, threads);
             System.out.println("OK!");
-            return box;
-        } catch (SignallingException | InvalidValueException |
-                InvalidRowException | InvalidVariableException e) {
-            System.out.println(e.getMessage());
-        } catch (Error e) {
-            String msg = e.getMessage().replace('<', '\'').replace('>', '\'');
-            System.out.println("Cannot continue: " + msg);
-        } catch (FileNotFoundException e) {
-            System.out.println("Cannot continue, file missing.");
+        } catch (InvalidVariableException e) {
+            analysis.setVariableError(e.getMessage());
+        } catch (SignallingException e) {
+            analysis.setSignalling(e);
         } catch (Exception e) {
             System.out.println("Cannot continue, unknown error: " + e.getMessage());
+            return null;
         }
-        return null;
+        return analysis;
+    }
+
+
+    /**
+     * Reports the problems found by the analysis of the given box.
+     *
+     * @param box  the box that was analysed.
+     * @param analysis  the analysis of the box.
+     */
+    private void report(Box box, AnalysisCache.Analysis analysis) {
+        if (analysis.getVariableError() != null) {
+            System.out.println(analysis.getVariableError());
+        } else if (!analysis.getErrors().isEmpty()) {
+            System.out.println(analysis.getErrors().size() + " problems found.");
+            for (String error : analysis.getErrors()) {
+                System.out.println(error);
+            }
+        } else if (analysis.getSignalling() != null) {
+            SignallingException e = analysis.getSignalling();
+            System.out.println(e.getMessage());
+            if (e.getParty() >= 0) {
+                System.out.println("Input " + box.getInputs().get(e.getParty())
+                        + " changes " + signalled(box, e.getGroup())
+                        + " between rows " + e.getRow() + " and "
+                        + e.getOtherRow() + ".");
+            }
+        }
+    }
+
+    /**
+     * Returns a description of the outputs of the given group of parties.
+     *
+     * @param box  the box being compiled.
+     * @param group  the bitmask of the group, or -1 for all other parties.
+     * @return description of the outputs.
+     */
+    private String signalled(Box box, int group) {
+        if (group < 0)
+            return "the other outputs";
+        StringBuilder sb = new StringBuilder("outputs ");
+        for (int i = 0; i < box.getNoOfOutputs(); i++) {
+            if ((group & (1 << i)) != 0) {
+                if (sb.length() > 8)
+                    sb.append(", ");
+                sb.append(box.getOutputs().get(i));
+            }
+        }
+        return sb.toString();
     }
 
     /**
@@ -149,16 +338,41 @@ public class QGrady {
      *
      * @param box  the box being converted into .prism file.
      * @param dest  the .prism file to be written.
+     * @param threads  the number of threads generating the model.
      */
-    private void codeGeneration(Box box, File dest) {
+    private void codeGeneration(Box box, File dest, int threads) {
         System.out.print("Writing box to " + dest.getName() + "... ");
         FileGenerator gen = new FileGenerator(box, dest);
-        gen.generateLines();
-        gen.write();
+        gen.setThreads(threads);
+        gen.stream();
         System.out.println("OK!");
     }
 
 
+    /**
+     * Tabulates the given box mixed with white noise at each step from
+     * visibility 0 to 1. The CHSH or Mermin expression is evaluated for boxes
+     * of two or three parties with binary inputs and outputs.
+     *
+     * @param box  the box being mixed with noise.
+     * @param steps  the number of steps.
+     * @param local  whether each mixture is checked for locality.
+     * @param threads  the number of threads used.
+     */
+    private void sweep(Box box, int steps, boolean local, int threads) {
+        BellExpression expression = null;
+        if (box.getInputRange() == 2 && box.getOutputRange() == 2) {
+            if (box.getNoOfInputs() == 2)
+                expression = BellExpression.chsh();
+            else if (box.getNoOfInputs() == 3)
+                expression = BellExpression.mermin();
+        }
+        NoiseSweep sweep = new NoiseSweep(box, expression);
+        System.out.print(NoiseSweep.table(
+                sweep.sweep(NoiseSweep.grid(steps), local, threads)));
+    }
+
+
     /**
      * Displays the help message associated with the usage of the arguments.
      */
@@ -173,7 +387,7 @@ public class QGrady {
      * Displays the version information of the software.
      */
     private void version() {
-        System.out.println("qgrady (Q'Grady) v0.5.1");
+        System.out.println("qgrady (Q'Grady) v" + VERSION);
         System.out.println("Author: Aidan O'Grady");
         System.out.println("4th Year project for M. Eng. Computer Science" +
                 " at the University of Strathclyde, Glasgow");
@@ -244,6 +458,65 @@ public class QGrady {
     }
 
 
+    /**
+     * Returns the number of threads given by the user, or 1 if none were.
+     *
+     * @param threads  the value of the threads option.
+     * @return the number of threads.
+     * @throws NumberFormatException - If the value is not a positive number.
+     */
+    private int validateThreads(String threads) throws NumberFormatException {
+        if (threads == null)
+            return 1;
+        int n = Integer.parseInt(threads);
+        if (n < 1)
+            throw new NumberFormatException(threads + ": not a positive number");
+        return n;
+    }
+
+
+    /**
+     * Returns the number of steps of the noise sweep given by the user, or 0
+     * if none were.
+     *
+     * @param steps  the value of the sweep option.
+     * @return the number of steps.
+     * @throws NumberFormatException - If the value is not a positive number.
+     */
+    private int validateSteps(String steps) throws NumberFormatException {
+        if (steps == null)
+            return 0;
+        int n = Integer.parseInt(steps);
+        if (n < 1)
+            throw new NumberFormatException(steps + ": not a positive number");
+        return n;
+    }
+
+
+    /**
+     * Returns the cache of analyses in the given directory, bounded to the
+     * given number of megabytes, or null if no directory was given.
+     *
+     * @param dir  the value of the cache option.
+     * @param size  the value of the cache-size option.
+     * @return the cache, or null
+     * @throws NumberFormatException - If the size is not a positive number.
+     */
+    private AnalysisCache validateCache(String dir, String size)
+            throws NumberFormatException {
+        if (dir == null)
+            return null;
+        long limit = AnalysisCache.DEFAULT_LIMIT;
+        if (size != null) {
+            long mb = Long.parseLong(size);
+            if (mb < 1)
+                throw new NumberFormatException(size + ": not a positive number");
+            limit = mb << 20;
+        }
+        return new AnalysisCache(new File(dir), limit);
+    }
+
+
     /**
      * The main method parses the args, and begins the execution of the
      * compiler.
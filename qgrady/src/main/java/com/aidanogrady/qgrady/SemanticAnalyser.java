@@ -4,10 +4,20 @@ import com.aidanogrady.qgrady.exceptions.InvalidRowException;
 import com.aidanogrady.qgrady.exceptions.InvalidValueException;
 import com.aidanogrady.qgrady.exceptions.InvalidVariableException;
 import com.aidanogrady.qgrady.exceptions.SignallingException;
+import com.aidanogrady.qgrady.kernel.Kernel;
+import com.aidanogrady.qgrady.kernel.Kernels;
+import com.aidanogrady.qgrady.storage.DenseDistribution;
+import com.aidanogrady.qgrady.storage.Distribution;
+import com.aidanogrady.qgrady.storage.ExactDistribution;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Semantic Analyser ensures that the semantics of the language are
@@ -20,25 +30,26 @@ import java.util.List;
 public class SemanticAnalyser {
 
     /**
-     * List of words that are reserved in prism language, and thus cannot be
-     * used as variables.
-     *
-     * Taken from:
-     * http://www.prismmodelchecker.org/manual/ThePRISMLanguage/ModulesAndVariables
+     * The smallest sum a row may have, allowing for values such as 1/3 that
+     * cannot be written out in full.
+     */
+    private static final double MIN_ROW_SUM = 0.99999;
+
+    /**
+     * MIN_ROW_SUM as a fraction, for checking the sums of exact boxes.
+     */
+    private static final long MIN_ROW_SUM_NUMERATOR = 99999;
+
+    /**
+     * The denominator of MIN_ROW_SUM_NUMERATOR.
      */
-    private static final List<String> KEYWORDS = Arrays.asList(
-            "A", "bool", "clock", "const", "ctmc", "C", "double", "dtmc", "E",
-            "endinit", "endinvariant", "endmodule", "endrewards", "endsystem",
-            "false", "formula", "filter", "func", "F", "global", "G", "init",
-            "invariant", "I", "int", "label", "max", "mdp", "min", "module",
-            "X", "nondeterministic", "Pmax", "Pmin", "P", "probabilistic",
-            "prob", "pta", "rate", "rewards", "Rmax", "Rmin", "R", "S",
-            "stochastic", "system", "true", "U", "W");
+    private static final long MIN_ROW_SUM_DENOMINATOR = 100000;
 
 
     /**
      * Validates all variables to ensure that there are no conflicts within the
-     * set-up or with Prism.
+     * set-up or with Prism. Variables are compared by their IDs in the symbol
+     * table of the box, so each check takes constant time.
      * @param box  the box being analysed.
      * @throws InvalidVariableException
      */
@@ -51,40 +62,42 @@ public class SemanticAnalyser {
         }
 
         // Handle all inputs.
-        List<String> strings = box.getInputs();
-        for(String string : strings) {
-            validateVariable(box, string, strings);
+        SymbolTable symbols = box.getSymbols();
+        for(int i = 0; i < box.getNoOfInputs(); i++) {
+            int id = symbols.getInputId(i);
+            validateVariable(symbols, id, symbols.getInputCount(id));
         }
 
-        // Handle all inputs.
-        strings = box.getOutputs();
-        for(String string : strings) {
-            validateVariable(box, string, strings);
+        // Handle all outputs.
+        for(int i = 0; i < box.getNoOfOutputs(); i++) {
+            int id = symbols.getOutputId(i);
+            validateVariable(symbols, id, symbols.getOutputCount(id));
         }
     }
 
     /**
      * Handles the validation of a single variable.
-     * @param box  The box being analysed.
-     * @param var  The variable name
-     * @param vars  The variable list the var appears in.
+     * @param symbols  The symbol table of the box being analysed.
+     * @param id  The ID of the variable.
+     * @param count  The number of times the variable appears in its list.
      * @throws InvalidVariableException
      */
-    private static void validateVariable(Box box, String var, List<String> vars)
+    private static void validateVariable(SymbolTable symbols, int id, int count)
             throws InvalidVariableException {
-        boolean in = box.getInputs().contains(var);
-        boolean out = box.getOutputs().contains(var);
+        String var = symbols.getName(id);
+        boolean in = symbols.getInputCount(id) > 0;
+        boolean out = symbols.getOutputCount(id) > 0;
         if (in && out) {
             String msg = "Variable " + var + " is both input and output.";
             throw new InvalidVariableException(msg);
         }
 
-        if (KEYWORDS.contains(var)) {
+        if (symbols.isKeyword(id)) {
             String msg = "Variable " + var + " is a Prism keyword.";
             throw new InvalidVariableException(msg);
         }
 
-        if (Collections.frequency(vars, var) > 1) {
+        if (count > 1) {
             String msg = "Variable " + var + " is used multiple times.";
             throw new InvalidVariableException(msg);
 
@@ -103,17 +116,69 @@ public class SemanticAnalyser {
     public static void validateValues(double[][] box) throws
             InvalidValueException
     {
+        Kernel kernel = Kernels.get();
         for (int i = 0; i < box.length; i++) {
-            for (int j = 0; j < box[i].length; j++) {
-                if (box[i][j] > 1.0 || box[i][j] < 0.0) {
-                    String mgs = "Error in row " + i + ", column " + j;
-                    mgs += ": expected between 0 and 1, got " + box[i][j];
-                    throw new InvalidValueException(mgs);
-                }
+            int j = kernel.outOfRange(box[i], 0, box[i].length);
+            if (j >= 0) {
+                String mgs = "Error in row " + i + ", column " + j;
+                mgs += ": expected between 0 and 1, got " + box[i][j];
+                throw new InvalidValueException(mgs);
+            }
+        }
+    }
+
+    /**
+     * Determines whether there are any invalid values within the distribution
+     * of the given box, reading the values straight from its storage. Zeros
+     * are always valid, so only the entries of each row are visited, and only
+     * the first row of each row class is visited at all. Rows stored in an
+     * array are handed to the kernel whole.
+     *
+     * @param box  the box being checked.
+     * @throws InvalidValueException
+     */
+    public static void validateValues(Box box) throws InvalidValueException {
+        Distribution probs = box.getDistribution();
+        Kernel kernel = Kernels.get();
+        boolean[] checked = new boolean[probs.getRowClasses()];
+        for (int i = 0; i < probs.getRows(); i++) {
+            if (firstOfClass(probs, i, checked))
+                continue;
+            int count = probs.getEntryCount(i);
+            double[] array = probs.getEntryArray(i);
+            if (array != null) {
+                int offset = probs.getEntryOffset(i);
+                int found = kernel.outOfRange(array, offset, offset + count);
+                if (found >= 0)
+                    throw invalidValue(probs, i, found - offset);
+                continue;
+            }
+            for (int j = 0; j < count; j++) {
+                double value = probs.getEntryValue(i, j);
+                if (value > 1.0 || value < 0.0)
+                    throw invalidValue(probs, i, j);
             }
         }
     }
 
+    /**
+     * Returns the exception reporting the given entry of the given row as
+     * being out of range.
+     *
+     * @param probs  the distribution being checked.
+     * @param row  the row of the value.
+     * @param entry  the entry of the value.
+     * @return exception
+     */
+    private static InvalidValueException invalidValue(Distribution probs,
+                                                      int row, int entry) {
+        int column = probs.getEntryColumn(row, entry);
+        double value = probs.getEntryValue(row, entry);
+        String mgs = "Error in row " + row + ", column " + column;
+        mgs += ": expected between 0 and 1, got " + value;
+        return new InvalidValueException(mgs);
+    }
+
     /**
      * Determines where there are the correct number of rows as expected in the
      * probability distribution based on the intended range of the input values
@@ -126,7 +191,7 @@ public class SemanticAnalyser {
         int inputs = box.getNoOfInputs();
         int range = box.getInputRange();
         int expected = (int) Math.pow(range, inputs);
-        int result = box.getProbs().length;
+        int result = box.getRows();
         if (result != expected) {
             String msg = "Set up has " + inputs + " inputs with range " + range
                     + ". Expected matrix to have " + expected + " rows, got "
@@ -151,9 +216,8 @@ public class SemanticAnalyser {
         int inputs = box.getNoOfOutputs();
         int range = box.getOutputRange();
         int ex = (int) Math.pow(range, inputs);
-        double[][] matrix = box.getProbs();
-        for(int i = 1; i < matrix.length; i++) {
-            int row = matrix[i].length;
+        for(int i = 1; i < box.getRows(); i++) {
+            int row = box.getRowLength(i);
             if (row != ex) {
                 String msg = "Error in row " + i + ": Expected " + ex;
                 msg += " values, got " + row;
@@ -168,7 +232,9 @@ public class SemanticAnalyser {
      *
      * Since we are dealing with probabilities, every row must sum up to exactly
      * 1.0 to ensure that the probabilities are accurate, otherwise the set-up
-     * makes no sense.
+     * makes no sense. A sum may run over 1.0 by no more than the rounding
+     * allowed by Kernel.tolerance, so that the result is the same whichever
+     * order the kernel adds the values in.
      *
      * @param box  the 2D array extracted from parsing to checked.
      * @throws InvalidRowException
@@ -176,76 +242,779 @@ public class SemanticAnalyser {
     public static void validateRowSums(double[][] box) throws
             InvalidRowException
     {
-        double sum = 0;
+        Kernel kernel = Kernels.get();
         for(int i=0; i < box.length; i++) {
-            for(int j=0; j < box[i].length; j++) {
-                sum += box[i][j];
+            double sum = kernel.sum(box[i], 0, box[i].length);
+            if(invalidSum(sum, box[i].length)) {
+                String msg = "Error in row " + i + ": Expected sum of 1.0, got " + sum;
+                throw new InvalidRowException(msg);
             }
-            if(sum < 0.99999 || sum > 1.0) {
+        }
+    }
+
+    /**
+     * Determines whether there are rows in the distribution of the given box
+     * that do not sum to one, reading the values straight from its storage.
+     * Only the entries of the first row of each row class are visited, and
+     * rows stored in an array are summed by the kernel.
+     *
+     * @param box  the box being checked.
+     * @throws InvalidRowException
+     */
+    public static void validateRowSums(Box box) throws InvalidRowException {
+        Distribution probs = box.getDistribution();
+        if (probs instanceof ExactDistribution) {
+            validateRowSums((ExactDistribution) probs);
+            return;
+        }
+        Kernel kernel = Kernels.get();
+        boolean[] checked = new boolean[probs.getRowClasses()];
+        for(int i = 0; i < probs.getRows(); i++) {
+            if (firstOfClass(probs, i, checked))
+                continue;
+            int count = probs.getEntryCount(i);
+            double[] array = probs.getEntryArray(i);
+            double sum = 0;
+            if (array != null) {
+                int offset = probs.getEntryOffset(i);
+                sum = kernel.sum(array, offset, offset + count);
+            } else {
+                for(int j = 0; j < count; j++) {
+                    sum += probs.getEntryValue(i, j);
+                }
+            }
+            if(invalidSum(sum, count)) {
                 String msg = "Error in row " + i + ": Expected sum of 1.0, got " + sum;
                 throw new InvalidRowException(msg);
             }
-            sum = 0;
         }
     }
 
+    /**
+     * Returns whether the given sum of the given number of values is too far
+     * from 1.0 for a row of probabilities.
+     *
+     * @param sum  the sum of the row.
+     * @param count  the number of values summed.
+     * @return true if the sum is invalid.
+     */
+    static boolean invalidSum(double sum, int count) {
+        return sum < MIN_ROW_SUM || sum > 1.0 + Kernel.tolerance(count);
+    }
+
+    /**
+     * Determines whether there are rows in the given exact distribution that
+     * do not sum to one, summing the numerators of each row exactly.
+     *
+     * @param probs  the distribution being checked.
+     * @throws InvalidRowException
+     */
+    private static void validateRowSums(ExactDistribution probs) throws
+            InvalidRowException
+    {
+        long denominator = probs.getDenominator();
+        boolean[] checked = new boolean[probs.getRowClasses()];
+        for(int i = 0; i < probs.getRows(); i++) {
+            if (firstOfClass(probs, i, checked))
+                continue;
+            long sum = 0;
+            for(int j = 0; j < probs.getRowLength(i); j++) {
+                sum += probs.getNumerator(i, j);
+            }
+            if(sum * MIN_ROW_SUM_DENOMINATOR < MIN_ROW_SUM_NUMERATOR * denominator
+                    || sum > denominator) {
+                String msg = "Error in row " + i + ": Expected sum of 1.0, got "
+                        + (double) sum / denominator;
+                throw new InvalidRowException(msg);
+            }
+        }
+    }
+
+    /**
+     * Checks the distribution of the given box for every problem that
+     * validateValues, validateRowAmount, validateRowLengths and validateRowSums
+     * look for, in a single pass over the rows. Rather than stopping at the
+     * first problem, every problem found is reported, each in the same words
+     * as the exception the separate check would throw.
+     *
+     * A row of a class already found free of problems is not examined again,
+     * beyond its length.
+     *
+     * @param box  the box being checked.
+     * @return a message for each problem found, empty if there are none.
+     */
+    public static List<String> validateDistribution(Box box) {
+        List<String> errors = new ArrayList<>();
+        Distribution probs = box.getDistribution();
+        Kernel kernel = Kernels.get();
+        String amount = rowAmountError(box);
+        if (amount != null)
+            errors.add(amount);
+
+        boolean[] clean = new boolean[probs.getRowClasses()];
+        for (int i = 0; i < probs.getRows(); i++) {
+            String length = rowLengthError(box, i);
+            if (length != null)
+                errors.add(length);
+
+            int rowClass = probs.getRowClass(i);
+            if (clean[rowClass])
+                continue;
+            int before = errors.size();
+            validateRow(box, i, kernel, errors);
+            clean[rowClass] = errors.size() == before;
+        }
+        return errors;
+    }
+
+    /**
+     * Returns the message of validateRowAmount for the given box, or null if
+     * it has the right number of rows.
+     *
+     * @param box  the box being checked.
+     * @return message, or null
+     */
+    static String rowAmountError(Box box) {
+        int expected = (int) Math.pow(box.getInputRange(), box.getNoOfInputs());
+        if (box.getRows() == expected)
+            return null;
+        return "Set up has " + box.getNoOfInputs() + " inputs with range "
+                + box.getInputRange() + ". Expected matrix to have "
+                + expected + " rows, got " + box.getRows() + ".";
+    }
+
+    /**
+     * Returns the message of validateRowLengths for the given row of the
+     * given box, or null if the row has the right length.
+     *
+     * @param box  the box being checked.
+     * @param row  the row being checked.
+     * @return message, or null
+     */
+    static String rowLengthError(Box box, int row) {
+        int length = box.getRowLength(row);
+        if (length == box.getColumns())
+            return null;
+        return "Error in row " + row + ": Expected " + box.getColumns()
+                + " values, got " + length;
+    }
+
+    /**
+     * Checks the values and the sum of the given row of the given box, adding
+     * a message to the given list for every problem found.
+     *
+     * @param box  the box being checked.
+     * @param row  the row being checked.
+     * @param kernel  the kernel checking the values.
+     * @param errors  the messages found so far.
+     */
+    static void validateRow(Box box, int row, Kernel kernel,
+                            List<String> errors) {
+        Distribution probs = box.getDistribution();
+        int count = probs.getEntryCount(row);
+        double[] array = probs.getEntryArray(row);
+        double sum = 0;
+        if (array != null) {
+            int offset = probs.getEntryOffset(row);
+            int end = offset + count;
+            int found = kernel.outOfRange(array, offset, end);
+            while (found >= 0) {
+                errors.add(invalidValue(probs, row, found - offset)
+                        .getMessage());
+                found = kernel.outOfRange(array, found + 1, end);
+            }
+            sum = kernel.sum(array, offset, end);
+        } else {
+            for (int j = 0; j < count; j++) {
+                double value = probs.getEntryValue(row, j);
+                if (value > 1.0 || value < 0.0)
+                    errors.add(invalidValue(probs, row, j).getMessage());
+                sum += value;
+            }
+        }
+
+        if (probs instanceof ExactDistribution) {
+            ExactDistribution exact = (ExactDistribution) probs;
+            long numerators = 0;
+            for (int j = 0; j < exact.getRowLength(row); j++) {
+                numerators += exact.getNumerator(row, j);
+            }
+            long denominator = exact.getDenominator();
+            if (numerators * MIN_ROW_SUM_DENOMINATOR
+                    < MIN_ROW_SUM_NUMERATOR * denominator
+                    || numerators > denominator)
+                errors.add("Error in row " + row + ": Expected sum of 1.0, got "
+                        + (double) numerators / denominator);
+        } else if (invalidSum(sum, count)) {
+            errors.add("Error in row " + row + ": Expected sum of 1.0, got "
+                    + sum);
+        }
+    }
+
+    /**
+     * Marks the class of the given row as checked, returning whether it had
+     * already been checked through an earlier row. Rows of a class share their
+     * values, so a row of a checked class passes or fails with the first.
+     *
+     * @param probs  the distribution being checked.
+     * @param row  the row about to be checked.
+     * @param checked  whether each class has been checked.
+     * @return true if the row need not be checked.
+     */
+    private static boolean firstOfClass(Distribution probs, int row,
+                                        boolean[] checked) {
+        int rowClass = probs.getRowClass(row);
+        if (checked[rowClass])
+            return true;
+        checked[rowClass] = true;
+        return false;
+    }
 
     /**
      * A valid non-local box must fulfill the 'non-signalling' property. This
      * property can be summarized as 'the input of one party cannot influence
      * the output of another party's output'.
      *
+     * For each party, the outputs of the party are summed out of every row,
+     * giving the marginal of the other parties' outputs for each assignment
+     * of inputs. Rows that differ only in the party's input must then have
+     * the same marginal. Each row is visited once per party, so the check is
+     * linear in the size of the matrix times the number of parties. Rows known
+     * to hold the same values are not compared at all.
+     *
+     * Exact boxes have their sums compared as sums of numerators, free of any
+     * rounding error.
+     *
      * @param box  the set-up being examined.
      * @throws SignallingException
      */
     public static void nonSignalling(Box box) throws SignallingException {
-        System.out.println();
-        int inputRange = box.getInputRange();
-        int outputRange = box.getOutputRange();
-        int inputSize = box.getNoOfInputs();
-        int outputSize = box.getNoOfOutputs();
-        int inMax = (int) Math.pow(inputRange, inputSize);
-        int outMax = (int) Math.pow(outputRange, outputSize);
-
-        for (int i = 0; i < inputSize; i++) {
-            for (int j = 0; j < inMax; j++) {
-                for (int k = 0; k < outMax; k++) {
-                    int[] in = Box.intToArray(j, inputSize, inputRange);
-                    int[] out = Box.intToArray(k, outputSize, outputRange);
-                    nonSignalling(box, in, out, i);
+        nonSignalling(box, 1);
+    }
+
+    /**
+     * Checks that the given box is non-signalling as nonSignalling(Box) does,
+     * splitting the work across the given number of threads.
+     *
+     * The work is split by party and then by ranges of rows. Violations are
+     * ordered by party and then by row, and the first in that order is the
+     * one reported, whichever thread finds it first. Once a violation has
+     * been found, any work that could only find later violations is dropped.
+     * The exception thrown is therefore exactly the one thrown by a check on
+     * a single thread.
+     *
+     * @param box  the set-up being examined.
+     * @param threads  the number of threads used.
+     * @throws SignallingException
+     */
+    public static void nonSignalling(Box box, int threads)
+            throws SignallingException {
+        AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+        int parties = box.getNoOfInputs();
+        if (threads <= 1) {
+            for (int i = 0; i < parties && first.get() == Long.MAX_VALUE; i++) {
+                new PartyCheck(box, i).check(0, box.getRows(), first);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                List<SignallingTask> tasks = new ArrayList<>();
+                for (int i = 0; i < parties; i++) {
+                    tasks.add(new SignallingTask(new PartyCheck(box, i), 0,
+                            box.getRows(), first));
                 }
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(tasks);
+                    }
+                });
+            } finally {
+                pool.shutdown();
             }
         }
+
+        long key = first.get();
+        if (key != Long.MAX_VALUE) {
+            int party = (int) (key / box.getRows());
+            int row = (int) (key % box.getRows());
+            int other = new PartyCheck(box, party).violation(row);
+            throw new SignallingException("Signalling found", party, row, other);
+        }
     }
 
     /**
-     * Handles the non-signalling condition for a specific combination.
+     * The check of a single party for signalling, holding what is needed to
+     * compare the marginals of its rows.
+     */
+    private static class PartyCheck {
+
+        /**
+         * The box being analysed.
+         */
+        private final Box box;
+
+        /**
+         * The index of the party being checked.
+         */
+        private final int index;
+
+        /**
+         * The column of the marginal each column of the box is summed into.
+         */
+        private final int[] cols;
+
+        /**
+         * The number of columns in a marginal.
+         */
+        private final int size;
+
+        /**
+         * Constructs a new check of the given party of the given box.
+         *
+         * @param box  the box being analysed.
+         * @param index  the index of the party being checked.
+         */
+        private PartyCheck(Box box, int index) {
+            this.box = box;
+            this.index = index;
+            this.cols = marginalColumns(box, index);
+            this.size = box.getColumns() / box.getOutputRange();
+        }
+
+        /**
+         * Returns the place in the order of violations of one found at the
+         * given row.
+         *
+         * @param row  the row of the violation.
+         * @return key
+         */
+        private long key(int row) {
+            return (long) index * box.getRows() + row;
+        }
+
+        /**
+         * Checks every row in the given range with the party's input at 0,
+         * recording the key of the first violation in first unless an earlier
+         * one has already been recorded. Stops as soon as any violation it
+         * could find would come after the one recorded.
+         *
+         * @param from  the first row checked.
+         * @param to  the row after the last checked.
+         * @param first  the key of the first violation found so far.
+         */
+        private void check(int from, int to, AtomicLong first) {
+            Scratch scratch = new Scratch(size, box.getDistribution());
+            for (int row = from; row < to; row++) {
+                if (key(row) > first.get())
+                    return;
+                if (violation(row, scratch) >= 0) {
+                    long key = key(row);
+                    first.accumulateAndGet(key, Math::min);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Returns the first row that differs from the given row only in the
+         * party's input and whose marginal differs from that of the given
+         * row, or -1 if there is none or the given row does not have the
+         * party's input at 0.
+         *
+         * @param row  the row being examined.
+         * @return other row, or -1
+         */
+        private int violation(int row) {
+            return violation(row, new Scratch(size, box.getDistribution()));
+        }
+
+        /**
+         * Returns the first row whose marginal differs from the given row, as
+         * violation(int) does, using the given scratch space.
+         *
+         * @param row  the row being examined.
+         * @param scratch  space for the marginals being compared.
+         * @return other row, or -1
+         */
+        private int violation(int row, Scratch scratch) {
+            int inStride = box.getInputStride(index);
+            int range = box.getInputRange();
+            if (row / inStride % range != 0)
+                return -1;
+            Distribution probs = box.getDistribution();
+            boolean summed = false;
+            for (int x = 1; x < range; x++) {
+                int other = row + x * inStride;
+                if (other >= box.getRows() || box.sameRow(row, other))
+                    continue;
+                if (scratch.exact != null) {
+                    if (!summed)
+                        marginal(scratch.exact, row, cols, scratch.exactBase);
+                    marginal(scratch.exact, other, cols, scratch.exactSlice);
+                    if (!Arrays.equals(scratch.exactBase, scratch.exactSlice))
+                        return other;
+                } else {
+                    if (!summed)
+                        marginal(probs, row, cols, scratch.base);
+                    marginal(probs, other, cols, scratch.slice);
+                    if (!equal(scratch.base, scratch.slice))
+                        return other;
+                }
+                summed = true;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Space for the two marginals compared by a single thread.
+     */
+    private static class Scratch {
+
+        /**
+         * The distribution as an exact distribution, if it is one.
+         */
+        private final ExactDistribution exact;
+
+        /**
+         * The marginal of the row with the party's input at 0.
+         */
+        private final double[] base;
+
+        /**
+         * The marginal of the row it is compared with.
+         */
+        private final double[] slice;
+
+        /**
+         * The sums of numerators of the row with the party's input at 0.
+         */
+        private final long[] exactBase;
+
+        /**
+         * The sums of numerators of the row it is compared with.
+         */
+        private final long[] exactSlice;
+
+        /**
+         * Constructs new space for marginals of the given size.
+         *
+         * @param size  the number of columns in a marginal.
+         * @param probs  the distribution being analysed.
+         */
+        private Scratch(int size, Distribution probs) {
+            if (probs instanceof ExactDistribution) {
+                exact = (ExactDistribution) probs;
+                base = slice = null;
+                exactBase = new long[size];
+                exactSlice = new long[size];
+            } else {
+                exact = null;
+                base = new double[size];
+                slice = new double[size];
+                exactBase = exactSlice = null;
+            }
+        }
+    }
+
+    /**
+     * A task checking a range of rows for a single party, splitting itself in
+     * two until the range is small enough to check directly. Halves are
+     * dropped without being checked once a violation has been found before
+     * them.
+     */
+    @SuppressWarnings("serial")
+    private static class SignallingTask extends RecursiveAction {
+
+        /**
+         * The fewest rows worth splitting between two tasks.
+         */
+        private static final int THRESHOLD = 256;
+
+        /**
+         * The check of the party.
+         */
+        private final PartyCheck check;
+
+        /**
+         * The first row checked.
+         */
+        private final int from;
+
+        /**
+         * The row after the last checked.
+         */
+        private final int to;
+
+        /**
+         * The key of the first violation found so far, by any task.
+         */
+        private final AtomicLong first;
+
+        /**
+         * Constructs a new task checking the given range of rows.
+         *
+         * @param check  the check of the party.
+         * @param from  the first row checked.
+         * @param to  the row after the last checked.
+         * @param first  the key of the first violation found so far.
+         */
+        private SignallingTask(PartyCheck check, int from, int to,
+                               AtomicLong first) {
+            this.check = check;
+            this.from = from;
+            this.to = to;
+            this.first = first;
+        }
+
+        @Override
+        protected void compute() {
+            if (check.key(from) > first.get())
+                return;
+            if (to - from <= THRESHOLD) {
+                check.check(from, to, first);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SignallingTask(check, from, middle, first),
+                    new SignallingTask(check, middle, to, first));
+        }
+    }
+
+    /**
+     * Checks that no group of parties can signal to the rest, rather than
+     * just single parties as nonSignalling does. For every group of parties
+     * kept, the marginal of their outputs must not depend on the inputs of
+     * the parties left out.
+     *
+     * The marginals are worked out level by level down the lattice of groups,
+     * from every party to single parties. Each marginal is found from a
+     * marginal one party larger, which is already known not to depend on the
+     * inputs of the parties it leaves out, by summing out the outputs of that
+     * one party. The result need then only be compared across that party's
+     * inputs, after which a single slice is kept as the marginal of the
+     * group. Every marginal is computed once, and only the level above is
+     * held at any time.
+     *
+     * Violations are found in order of group size, largest first, and then
+     * of group bitmask and row, so the one reported is always the same.
+     * Exact boxes have their numerators summed, which stay whole numbers well
+     * within the range doubles hold exactly.
+     *
+     * @param box  the set-up being examined.
+     * @throws SignallingException
+     */
+    public static void nonSignallingGroups(Box box)
+            throws SignallingException {
+        int parties = box.getNoOfInputs();
+        int all = (1 << parties) - 1;
+        boolean exact = box.getDistribution() instanceof ExactDistribution;
+        Map<Integer, Distribution> level = new HashMap<>();
+        level.put(all, box.getDistribution());
+
+        for (int size = parties - 1; size >= 1; size--) {
+            Map<Integer, Distribution> next = new HashMap<>();
+            for (int mask = 1; mask < all; mask++) {
+                if (Integer.bitCount(mask) != size)
+                    continue;
+                // Every group one larger is known, and all are the same size,
+                // so the one adding the lowest party left out is used.
+                int party = Integer.numberOfTrailingZeros(~mask);
+                int parent = mask | (1 << party);
+                next.put(mask, groupMarginal(box, level.get(parent), parent,
+                        party, exact && parent == all));
+            }
+            level = next;
+        }
+    }
+
+    /**
+     * Returns whether the given box is local, being a mixture of
+     * deterministic strategies and so reproducible without any non-local
+     * resource. The linear programme deciding this is solved in full, with
+     * strategies generated only as the simplex method asks for them, as
+     * described in LocalityChecker.
+     *
+     * The box is assumed to have passed every other check.
      *
-     * Late changes to the algorithm meant that repeated checks were no longe
-     * carried out.
-     * @param box  The box being analysed.
-     * @param in  The fixed inputs of this check.
-     * @param out  The fixed outputs of this check.
-     * @param index  The index that is being checked for signalling.
+     * @param box  the set-up being examined.
+     * @return true if the box is local.
+     * @throws IllegalArgumentException - If the box is too large to check.
+     */
+    public static boolean isLocal(Box box) {
+        return new LocalityChecker(box).solve() <= LocalityChecker.TOLERANCE;
+    }
+
+    /**
+     * Returns the marginal of the given group without the given party, having
+     * checked that it does not depend on the input of that party.
+     *
+     * @param box  the box being analysed.
+     * @param parent  the marginal of the group.
+     * @param mask  the bitmask of the group.
+     * @param party  the party being summed out.
+     * @param numerators  whether parent is exact and its numerators are summed.
+     * @return marginal without party
      * @throws SignallingException
      */
-    private static void nonSignalling(Box box, int[] in, int[] out, int index)
+    private static Distribution groupMarginal(Box box, Distribution parent,
+                                              int mask, int party,
+                                              boolean numerators)
             throws SignallingException {
-        double[] sums = new double[box.getInputRange()];
+        int size = Integer.bitCount(mask);
+        int position = Integer.bitCount(mask & ((1 << party) - 1));
+        int inRange = box.getInputRange();
+        int outRange = box.getOutputRange();
+        int low = (int) Math.pow(inRange, size - 1 - position);
+        int lowCol = (int) Math.pow(outRange, size - 1 - position);
+        int rows = (int) Math.pow(inRange, size - 1);
+        int width = (int) Math.pow(outRange, size - 1);
+        int[] cols = new int[width * outRange];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = i / (lowCol * outRange) * lowCol + i % lowCol;
+        }
 
-        for (int i = 0; i < box.getInputRange(); i++) {
-            in[index] = i;
-            for (int j = 0; j < box.getOutputRange(); j++) {
-                out[index] = j;
-                sums[i] += box.prob(in, out);
+        double[] child = new double[rows * width];
+        double[] base = new double[width];
+        double[] slice = new double[width];
+        for (int r = 0; r < rows; r++) {
+            int row = r / low * low * inRange + r % low;
+            groupSlice(parent, row, cols, numerators, base);
+            for (int x = 1; x < inRange; x++) {
+                int other = row + x * low;
+                if (parent.getRowClass(row) == parent.getRowClass(other))
+                    continue;
+                groupSlice(parent, other, cols, numerators, slice);
+                if (!equal(base, slice)) {
+                    int group = mask & ~(1 << party);
+                    throw new SignallingException("Signalling found", party,
+                            group, boxRow(box, mask, row),
+                            boxRow(box, mask, other));
+                }
             }
+            System.arraycopy(base, 0, child, r * width, width);
         }
+        return new DenseDistribution(child, rows, width);
+    }
 
-        for (int i = 0; i < sums.length; i++) {
-            for (int j = (i + 1); j < sums.length; j++) {
-                if(sums[i] != sums[j])
-                    throw new SignallingException("Signalling found");
+    /**
+     * Sums the given row of a group marginal into the given slice, each column
+     * being added to the column of the slice given by cols.
+     *
+     * @param parent  the marginal being summed.
+     * @param row  the row being summed.
+     * @param cols  the column of the slice for each column.
+     * @param numerators  whether parent is exact and its numerators are summed.
+     * @param slice  the slice being filled in.
+     */
+    static void groupSlice(Distribution parent, int row, int[] cols,
+                           boolean numerators, double[] slice) {
+        Arrays.fill(slice, 0);
+        if (numerators) {
+            ExactDistribution exact = (ExactDistribution) parent;
+            int length = Math.min(exact.getRowLength(row), cols.length);
+            for (int j = 0; j < length; j++) {
+                slice[cols[j]] += exact.getNumerator(row, j);
+            }
+            return;
+        }
+        for (int j = 0; j < parent.getEntryCount(row); j++) {
+            int column = parent.getEntryColumn(row, j);
+            if (column < cols.length)
+                slice[cols[column]] += parent.getEntryValue(row, j);
+        }
+    }
+
+    /**
+     * Returns the row of the box for the inputs given by the given row of the
+     * marginal of the given group, with the inputs of every other party at 0.
+     *
+     * @param box  the box being analysed.
+     * @param mask  the bitmask of the group.
+     * @param row  the row of the marginal.
+     * @return row of the box
+     */
+    private static int boxRow(Box box, int mask, int row) {
+        int result = 0;
+        for (int i = box.getNoOfInputs() - 1; i >= 0; i--) {
+            if ((mask & (1 << i)) != 0) {
+                result += row % box.getInputRange() * box.getInputStride(i);
+                row /= box.getInputRange();
             }
         }
+        return result;
+    }
+
+    /**
+     * Returns the column of the marginal without the given party that each
+     * column of the box is summed into.
+     *
+     * @param box  the box being analysed.
+     * @param index  the index of the party summed out.
+     * @return marginal columns
+     */
+    static int[] marginalColumns(Box box, int index) {
+        int low = box.getOutputStride(index);
+        int high = low * box.getOutputRange();
+        int[] cols = new int[box.getColumns()];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = i / high * low + i % low;
+        }
+        return cols;
+    }
+
+    /**
+     * Sums the given row into the given marginal, each column being added to
+     * the column of the marginal given by cols. Values are added in increasing
+     * order of column, the same order as adding each output of the party in
+     * turn.
+     *
+     * @param probs  the distribution being analysed.
+     * @param row  the row being summed.
+     * @param cols  the column of the marginal for each column.
+     * @param marginal  the marginal being filled in.
+     */
+    private static void marginal(Distribution probs, int row, int[] cols,
+                                 double[] marginal) {
+        Arrays.fill(marginal, 0);
+        for (int j = 0; j < probs.getEntryCount(row); j++) {
+            int column = probs.getEntryColumn(row, j);
+            if (column < cols.length)
+                marginal[cols[column]] += probs.getEntryValue(row, j);
+        }
+    }
+
+    /**
+     * Sums the numerators of the given row into the given marginal.
+     *
+     * @param probs  the distribution being analysed.
+     * @param row  the row being summed.
+     * @param cols  the column of the marginal for each column.
+     * @param marginal  the marginal being filled in.
+     */
+    private static void marginal(ExactDistribution probs, int row, int[] cols,
+                                 long[] marginal) {
+        Arrays.fill(marginal, 0);
+        int length = Math.min(probs.getRowLength(row), cols.length);
+        for (int j = 0; j < length; j++) {
+            marginal[cols[j]] += probs.getNumerator(row, j);
+        }
+    }
+
+    /**
+     * Returns whether the two given marginals hold equal sums. Unlike
+     * Arrays.equals, 0.0 and -0.0 are taken to be equal, as by ==.
+     *
+     * @param a  the first marginal.
+     * @param b  the second marginal.
+     * @return true if every sum is equal.
+     */
+    static boolean equal(double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i])
+                return false;
+        }
+        return true;
     }
 }
@@ -0,0 +1,229 @@
+package com.aidanogrady.qgrady;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The SymbolTable interns the names of the variables of a box, giving each
+ * distinct name an integer ID the first time it is seen. The semantic analyser
+ * and the file generator can then work with IDs, comparing and counting them
+ * in constant time rather than searching lists of names.
+ *
+ * IDs are given in order of first appearance, inputs first and then outputs,
+ * so a name used as both an input and an output has a single ID.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class SymbolTable {
+
+    /**
+     * Words that are reserved in prism language, and thus cannot be used as
+     * variables.
+     *
+     * Taken from:
+     * http://www.prismmodelchecker.org/manual/ThePRISMLanguage/ModulesAndVariables
+     */
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "A", "bool", "clock", "const", "ctmc", "C", "double", "dtmc", "E",
+            "endinit", "endinvariant", "endmodule", "endrewards", "endsystem",
+            "false", "formula", "filter", "func", "F", "global", "G", "init",
+            "invariant", "I", "int", "label", "max", "mdp", "min", "module",
+            "X", "nondeterministic", "Pmax", "Pmin", "P", "probabilistic",
+            "prob", "pta", "rate", "rewards", "Rmax", "Rmin", "R", "S",
+            "stochastic", "system", "true", "U", "W"));
+
+    /**
+     * The ID of each name.
+     */
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    /**
+     * The name of each ID.
+     */
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * The ID of each input, in order.
+     */
+    private final int[] inputs;
+
+    /**
+     * The ID of each output, in order.
+     */
+    private final int[] outputs;
+
+    /**
+     * The number of inputs with each ID.
+     */
+    private final int[] inputCounts;
+
+    /**
+     * The number of outputs with each ID.
+     */
+    private final int[] outputCounts;
+
+    /**
+     * Constructs a new symbol table for the given inputs and outputs.
+     *
+     * @param inputs  the names of the inputs.
+     * @param outputs  the names of the outputs.
+     */
+    public SymbolTable(List<String> inputs, List<String> outputs) {
+        this.inputs = intern(inputs);
+        this.outputs = intern(outputs);
+        inputCounts = new int[names.size()];
+        for (int id : this.inputs) {
+            inputCounts[id]++;
+        }
+        outputCounts = new int[names.size()];
+        for (int id : this.outputs) {
+            outputCounts[id]++;
+        }
+    }
+
+    /**
+     * Returns whether the given name is a PRISM keyword.
+     *
+     * @param name  the name being checked.
+     * @return true if name is reserved.
+     */
+    public static boolean isKeyword(String name) {
+        return KEYWORDS.contains(name);
+    }
+
+    /**
+     * Interns the given names, returning the ID of each.
+     *
+     * @param list  the names being interned.
+     * @return ids
+     */
+    private int[] intern(List<String> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            String name = list.get(i);
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name);
+            }
+            result[i] = id;
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the table was built from the given inputs and outputs,
+     * name for name and in the same order.
+     *
+     * @param inputs  the names of the inputs.
+     * @param outputs  the names of the outputs.
+     * @return true if the names are those of the table.
+     */
+    public boolean matches(List<String> inputs, List<String> outputs) {
+        return matches(this.inputs, inputs) && matches(this.outputs, outputs);
+    }
+
+    /**
+     * Returns whether the given IDs are those of the given names.
+     *
+     * @param ids  the IDs held by the table.
+     * @param list  the names being compared.
+     * @return true if each name has the ID in its place.
+     */
+    private boolean matches(int[] ids, List<String> list) {
+        if (ids.length != list.size())
+            return false;
+        for (int i = 0; i < ids.length; i++) {
+            if (!names.get(ids[i]).equals(list.get(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of distinct names in the table.
+     *
+     * @return size
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Returns the ID of the given name, or -1 if it is not in the table.
+     *
+     * @param name  the name being looked up.
+     * @return id
+     */
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the name with the given ID.
+     *
+     * @param id  the ID being looked up.
+     * @return name
+     */
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Returns the ID of the given input.
+     *
+     * @param index  the index of the input.
+     * @return id
+     */
+    public int getInputId(int index) {
+        return inputs[index];
+    }
+
+    /**
+     * Returns the ID of the given output.
+     *
+     * @param index  the index of the output.
+     * @return id
+     */
+    public int getOutputId(int index) {
+        return outputs[index];
+    }
+
+    /**
+     * Returns the number of inputs with the given ID.
+     *
+     * @param id  the ID being counted.
+     * @return count
+     */
+    public int getInputCount(int id) {
+        return inputCounts[id];
+    }
+
+    /**
+     * Returns the number of outputs with the given ID.
+     *
+     * @param id  the ID being counted.
+     * @return count
+     */
+    public int getOutputCount(int id) {
+        return outputCounts[id];
+    }
+
+    /**
+     * Returns whether the name with the given ID is a PRISM keyword.
+     *
+     * @param id  the ID being checked.
+     * @return true if the name is reserved.
+     */
+    public boolean isKeyword(int id) {
+        return isKeyword(names.get(id));
+    }
+}
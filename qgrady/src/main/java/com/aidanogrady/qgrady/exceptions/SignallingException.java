@@ -4,11 +4,113 @@ package com.aidanogrady.qgrady.exceptions;
  * Signals that the set-up of the non-local box specified in the source file
  * is not non-signalling, meaning that it is not valid for file generation.
  *
+ * Where known, the exception records where signalling was found: the party
+ * whose input changes the outputs of a group of other parties, and a pair of
+ * rows differing only in that input whose marginals for the group disagree.
+ *
  * @author Aidan O'Grady
  * @since 0.5.1
  */
 public class SignallingException extends Exception {
+
+    /**
+     * The index of the party that signals, or -1 if unknown.
+     */
+    private final int party;
+
+    /**
+     * The bitmask of the group of parties whose outputs the party changes,
+     * or -1 if that is every other party.
+     */
+    private final int group;
+
+    /**
+     * The row with the party's input at 0.
+     */
+    private final int row;
+
+    /**
+     * The row differing from row only in the party's input.
+     */
+    private final int otherRow;
+
     public SignallingException(String msg) {
+        this(msg, -1, -1, -1);
+    }
+
+    /**
+     * Constructs a new exception reporting signalling between the given rows.
+     *
+     * @param msg  the message of the exception.
+     * @param party  the index of the party that signals.
+     * @param row  the row with the party's input at 0.
+     * @param otherRow  the row differing only in the party's input.
+     * @since 1.1
+     */
+    public SignallingException(String msg, int party, int row, int otherRow) {
+        this(msg, party, -1, row, otherRow);
+    }
+
+    /**
+     * Constructs a new exception reporting signalling towards the given group
+     * of parties between the given rows.
+     *
+     * @param msg  the message of the exception.
+     * @param party  the index of the party that signals.
+     * @param group  the bitmask of the parties signalled to.
+     * @param row  the row with the party's input at 0.
+     * @param otherRow  the row differing only in the party's input.
+     * @since 1.1
+     */
+    public SignallingException(String msg, int party, int group, int row,
+                               int otherRow) {
         super(msg);
+        this.party = party;
+        this.group = group;
+        this.row = row;
+        this.otherRow = otherRow;
+    }
+
+    /**
+     * Returns the index of the party that signals, or -1 if unknown.
+     *
+     * @return party
+     * @since 1.1
+     */
+    public int getParty() {
+        return party;
+    }
+
+    /**
+     * Returns the bitmask of the group of parties whose outputs the party
+     * changes, where bit i stands for output i, or -1 if that is every other
+     * party.
+     *
+     * @return group
+     * @since 1.1
+     */
+    public int getGroup() {
+        return group;
+    }
+
+    /**
+     * Returns the row with the party's input at 0, or -1 if unknown.
+     *
+     * @return row
+     * @since 1.1
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * Returns the row whose marginal differs from that of getRow, or -1 if
+     * unknown.
+     *
+     * @return other row
+     * @since 1.1
+     */
+    public int getOtherRow() {
+        return otherRow;
     }
 }
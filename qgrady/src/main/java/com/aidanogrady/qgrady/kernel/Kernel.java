@@ -0,0 +1,91 @@
+package com.aidanogrady.qgrady.kernel;
+
+/**
+ * A Kernel carries out the tight loops over arrays of probabilities that the
+ * semantic analyser and the marginals of a box spend most of their time in.
+ * The scalar kernel works on any Java 8 runtime, while newer runtimes may
+ * provide a kernel using SIMD instructions, as chosen by Kernels.get.
+ *
+ * Every kernel must give exactly the same results as the scalar kernel, with
+ * the exceptions of sum and dot, which may add the values in a different
+ * order.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public interface Kernel {
+
+    /**
+     * Returns the position of the first value in the given range of the given
+     * array that is below 0 or above 1. NaN is neither, so is never found.
+     *
+     * @param values  the values being checked.
+     * @param from  the first position checked.
+     * @param to  the position after the last checked.
+     * @return position, or -1 if every value is in range.
+     */
+    int outOfRange(double[] values, int from, int to);
+
+    /**
+     * Returns the sum of the given range of the given array. The values may be
+     * added in any order, so the result may differ from adding them in turn by
+     * up to tolerance(to - from) times the sum of their magnitudes.
+     *
+     * @param values  the values being summed.
+     * @param from  the first position summed.
+     * @param to  the position after the last summed.
+     * @return sum
+     */
+    double sum(double[] values, int from, int to);
+
+    /**
+     * Returns the sum of the products of matching values of the given ranges
+     * of the two arrays. As with sum, the products may be added in any order,
+     * and each may be added without rounding it first, so the result may
+     * differ from adding them in turn by up to tolerance(length + 1) times the
+     * sum of their magnitudes.
+     *
+     * @param a  the first values multiplied.
+     * @param aFrom  the first position multiplied in a.
+     * @param b  the second values multiplied.
+     * @param bFrom  the first position multiplied in b.
+     * @param length  the number of products summed.
+     * @return dot product
+     */
+    double dot(double[] a, int aFrom, double[] b, int bFrom, int length);
+
+    /**
+     * Adds each value of the given range of the source array to the matching
+     * value of the destination array.
+     *
+     * @param src  the values being added.
+     * @param srcFrom  the first position added from.
+     * @param dst  the values being added to.
+     * @param dstFrom  the first position added to.
+     * @param length  the number of values added.
+     */
+    void add(double[] src, int srcFrom, double[] dst, int dstFrom, int length);
+
+    /**
+     * Divides every value in the given range of the given array by the given
+     * divisor.
+     *
+     * @param values  the values being divided.
+     * @param from  the first position divided.
+     * @param to  the position after the last divided.
+     * @param divisor  the value divided by.
+     */
+    void divide(double[] values, int from, int to, double divisor);
+
+    /**
+     * Returns the relative error allowed in the sum of the given number of
+     * values: twice the unit roundoff for every addition, which covers any
+     * two orders of adding them.
+     *
+     * @param count  the number of values summed.
+     * @return tolerance
+     */
+    static double tolerance(int count) {
+        return Math.max(count - 1, 0) * Math.ulp(1.0);
+    }
+}
@@ -0,0 +1,52 @@
+package com.aidanogrady.qgrady.kernel;
+
+/**
+ * Chooses the kernel to use on the running JVM.
+ *
+ * The vector kernel is only present in the Java 17 layer of the multi-release
+ * jar, and only works when the jdk.incubator.vector module has been added, as
+ * with java --add-modules jdk.incubator.vector. Anywhere else, loading it
+ * fails and the scalar kernel is used instead. Setting the qgrady.kernel
+ * property to scalar forces the scalar kernel.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class Kernels {
+
+    /**
+     * The name of the kernel held in the Java 17 layer.
+     */
+    private static final String VECTOR_KERNEL =
+            "com.aidanogrady.qgrady.kernel.VectorKernel";
+
+    /**
+     * The kernel chosen for this JVM.
+     */
+    private static final Kernel KERNEL = load();
+
+    /**
+     * Returns the kernel chosen for this JVM.
+     *
+     * @return kernel
+     */
+    public static Kernel get() {
+        return KERNEL;
+    }
+
+    /**
+     * Loads the vector kernel if it is present and usable, or else the scalar
+     * kernel.
+     *
+     * @return kernel
+     */
+    private static Kernel load() {
+        if ("scalar".equals(System.getProperty("qgrady.kernel")))
+            return new ScalarKernel();
+        try {
+            return (Kernel) Class.forName(VECTOR_KERNEL).newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarKernel();
+        }
+    }
+}
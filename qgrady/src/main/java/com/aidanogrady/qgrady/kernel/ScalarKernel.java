@@ -0,0 +1,55 @@
+package com.aidanogrady.qgrady.kernel;
+
+/**
+ * The kernel for any runtime, working through each array one value at a time.
+ * Sums are added strictly in turn, so they match the original loops of the
+ * semantic analyser exactly.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class ScalarKernel implements Kernel {
+
+    @Override
+    public int outOfRange(double[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (values[i] > 1.0 || values[i] < 0.0)
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public double sum(double[] values, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double dot(double[] a, int aFrom, double[] b, int bFrom,
+                      int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aFrom + i] * b[bFrom + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void add(double[] src, int srcFrom, double[] dst, int dstFrom,
+                    int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstFrom + i] += src[srcFrom + i];
+        }
+    }
+
+    @Override
+    public void divide(double[] values, int from, int to, double divisor) {
+        for (int i = from; i < to; i++) {
+            values[i] /= divisor;
+        }
+    }
+}
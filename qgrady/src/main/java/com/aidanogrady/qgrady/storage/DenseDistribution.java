@@ -0,0 +1,302 @@
+package com.aidanogrady.qgrady.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A distribution stored as a single row-major array, with every row taking up
+ * the same width so that a value is found with a single multiply-add. Every
+ * column of a row is an entry, zero or not.
+ *
+ * Rows are interned: each distinct row is stored once, in a slot of the
+ * array, and every row holding the same values shares that slot. Changing a
+ * row gives it a slot of its own rather than altering any row it shared with,
+ * and the slot of a row doubles as its row class. A slot left without rows
+ * is freed, and taken up again by the next row needing one, so the array
+ * never holds more slots than there are distinct rows plus those freed.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class DenseDistribution implements Distribution {
+
+    /**
+     * The values of each slot, one after another.
+     */
+    private double[] data;
+
+    /**
+     * The space given to each slot within data.
+     */
+    private final int width;
+
+    /**
+     * The number of values held in each slot. Only rows of a badly formed
+     * matrix will be shorter than width.
+     */
+    private int[] lengths;
+
+    /**
+     * The number of rows sharing each slot.
+     */
+    private int[] counts;
+
+    /**
+     * The slot holding each row.
+     */
+    private final int[] slots;
+
+    /**
+     * The number of slots in use or freed.
+     */
+    private int used;
+
+    /**
+     * The slots that have been freed, the last freed on top.
+     */
+    private int[] free;
+
+    /**
+     * The number of freed slots.
+     */
+    private int freed;
+
+    /**
+     * The slot holding each distinct row, keyed by its contents.
+     */
+    private final Map<Slot, Integer> interned = new HashMap<>();
+
+    /**
+     * Constructs a new distribution from the given array, holding the given
+     * number of rows of the given width.
+     *
+     * @param data  the values, row by row.
+     * @param rows  the number of rows.
+     * @param width  the length of every row.
+     */
+    public DenseDistribution(double[] data, int rows, int width) {
+        this(width, rows);
+        for (int i = 0; i < rows; i++) {
+            slots[i] = store(data, i * width, width);
+        }
+        resize(used);
+    }
+
+    /**
+     * Constructs a new distribution from the given matrix. Should the rows not
+     * all be of the same length, the shorter rows are padded so that lookups
+     * still take a single multiply-add.
+     *
+     * @param matrix  the matrix being stored.
+     */
+    public DenseDistribution(double[][] matrix) {
+        this(maxLength(matrix), matrix.length);
+        for (int i = 0; i < matrix.length; i++) {
+            slots[i] = store(matrix[i], 0, matrix[i].length);
+        }
+        resize(used);
+    }
+
+    /**
+     * Constructs a new, empty distribution of the given number of rows, with
+     * room yet for none of them.
+     *
+     * @param width  the length of every row.
+     * @param rows  the number of rows.
+     */
+    private DenseDistribution(int width, int rows) {
+        this.width = width;
+        slots = new int[rows];
+        data = new double[0];
+        lengths = new int[0];
+        counts = new int[0];
+        free = new int[0];
+    }
+
+    /**
+     * Returns the length of the longest row of the given matrix.
+     *
+     * @param matrix  the matrix being examined.
+     * @return max length
+     */
+    private static int maxLength(double[][] matrix) {
+        int max = 0;
+        for (double[] row : matrix) {
+            max = Math.max(max, row.length);
+        }
+        return max;
+    }
+
+    /**
+     * Writes the given values to the last freed slot, or to the first unused
+     * slot should none be free, and interns them, returning the slot of an
+     * identical row if there is one, or else taking the new slot into use.
+     *
+     * @param values  the array holding the values of the row.
+     * @param offset  the position in values of the first value of the row.
+     * @param length  the number of values in the row.
+     * @return slot
+     */
+    private int store(double[] values, int offset, int length) {
+        int target;
+        if (freed > 0) {
+            target = free[--freed];
+        } else {
+            // There are never more slots in use than rows, and a slot shared
+            // by many rows is only left behind once one of them changes.
+            if (used == lengths.length)
+                resize(Math.min(Math.max(used * 2, 1), slots.length));
+            target = used;
+        }
+        Arrays.fill(data, target * width, (target + 1) * width, 0.0);
+        System.arraycopy(values, offset, data, target * width, length);
+        lengths[target] = length;
+
+        Slot slot = new Slot(target);
+        Integer existing = interned.get(slot);
+        if (existing != null) {
+            counts[existing]++;
+            if (target < used)
+                free[freed++] = target;
+            return existing;
+        }
+        interned.put(slot, target);
+        counts[target] = 1;
+        if (target == used)
+            used++;
+        return target;
+    }
+
+    /**
+     * Gives room for the given number of slots, which must be no fewer than
+     * are in use or freed.
+     *
+     * @param capacity  the number of slots there is room for.
+     */
+    private void resize(int capacity) {
+        if (capacity == lengths.length)
+            return;
+        data = Arrays.copyOf(data, capacity * width);
+        lengths = Arrays.copyOf(lengths, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        free = Arrays.copyOf(free, capacity);
+    }
+
+    @Override
+    public int getRows() {
+        return slots.length;
+    }
+
+    @Override
+    public int getRowLength(int row) {
+        return lengths[slots[row]];
+    }
+
+    @Override
+    public double get(int row, int column) {
+        return data[slots[row] * width + column];
+    }
+
+    @Override
+    public int getEntryCount(int row) {
+        return lengths[slots[row]];
+    }
+
+    @Override
+    public int getEntryColumn(int row, int entry) {
+        return entry;
+    }
+
+    @Override
+    public double getEntryValue(int row, int entry) {
+        return data[slots[row] * width + entry];
+    }
+
+    @Override
+    public double[] getEntryArray(int row) {
+        return data;
+    }
+
+    @Override
+    public int getEntryOffset(int row) {
+        return slots[row] * width;
+    }
+
+    @Override
+    public int getRowClass(int row) {
+        return slots[row];
+    }
+
+    @Override
+    public int getRowClasses() {
+        return used;
+    }
+
+    @Override
+    public void setRow(int row, double[] values) {
+        if (values.length > width)
+            throw new IllegalArgumentException("Row of " + values.length
+                    + " values does not fit within " + width);
+
+        int old = slots[row];
+        if (--counts[old] == 0) {
+            interned.remove(new Slot(old));
+            free[freed++] = old;
+        }
+        slots[row] = store(values, 0, values.length);
+    }
+
+    /**
+     * A key for a slot in the intern table, being equal to another slot
+     * holding the same values.
+     */
+    private class Slot {
+
+        /**
+         * The slot this key stands for.
+         */
+        private final int slot;
+
+        /**
+         * The hash of the slot's values.
+         */
+        private final int hash;
+
+        /**
+         * Constructs a new key for the given slot.
+         *
+         * @param slot  the slot of the key.
+         */
+        private Slot(int slot) {
+            this.slot = slot;
+            int hash = lengths[slot];
+            for (int i = slot * width; i < (slot + 1) * width; i++) {
+                long bits = Double.doubleToLongBits(data[i]);
+                hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Slot))
+                return false;
+            Slot other = (Slot) o;
+            if (hash != other.hash || lengths[slot] != lengths[other.slot])
+                return false;
+            for (int i = 0; i < width; i++) {
+                long a = Double.doubleToLongBits(data[slot * width + i]);
+                long b = Double.doubleToLongBits(data[other.slot * width + i]);
+                if (a != b)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.aidanogrady.qgrady.storage;
+
+/**
+ * A Distribution holds the matrix of probabilities of a non-local box, with a
+ * row for every combination of inputs and a column for every combination of
+ * outputs. Implementations are free to store the matrix however suits it
+ * best, so long as every value can be looked up by its row and column.
+ *
+ * Each row is also available as a list of entries, being the columns the
+ * storage actually holds along with their values, in increasing order of
+ * column. Any column that is not an entry has a value of zero, so passes over
+ * the distribution that can ignore zeros need only visit the entries.
+ *
+ * Rows are grouped into classes, where two rows of the same class are known
+ * to hold identical values. Passes over the distribution can then work out a
+ * result for a row once and reuse it for every other row of its class.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public interface Distribution {
+
+    /**
+     * Returns the number of rows in the distribution.
+     *
+     * @return rows
+     */
+    int getRows();
+
+    /**
+     * Returns the number of values given in the given row.
+     *
+     * @param row  the row being examined.
+     * @return row length
+     */
+    int getRowLength(int row);
+
+    /**
+     * Returns the value in the given row and column.
+     *
+     * @param row  the row being examined.
+     * @param column  the column being examined.
+     * @return value
+     */
+    double get(int row, int column);
+
+    /**
+     * Returns the number of entries stored for the given row.
+     *
+     * @param row  the row being examined.
+     * @return entry count
+     */
+    int getEntryCount(int row);
+
+    /**
+     * Returns the column of the given entry of the given row.
+     *
+     * @param row  the row being examined.
+     * @param entry  the entry being examined.
+     * @return column
+     */
+    int getEntryColumn(int row, int entry);
+
+    /**
+     * Returns the value of the given entry of the given row.
+     *
+     * @param row  the row being examined.
+     * @param entry  the entry being examined.
+     * @return value
+     */
+    double getEntryValue(int row, int entry);
+
+    /**
+     * Returns the array the entry values of the given row are stored in, so
+     * that passes over them can work on the array directly, or null if the
+     * values are not held in an array. The values of the row run from
+     * getEntryOffset for getEntryCount places. The array belongs to the
+     * distribution and must not be modified.
+     *
+     * @param row  the row being examined.
+     * @return entry array, or null
+     */
+    default double[] getEntryArray(int row) {
+        return null;
+    }
+
+    /**
+     * Returns the position in getEntryArray of the first entry value of the
+     * given row.
+     *
+     * @param row  the row being examined.
+     * @return entry offset
+     */
+    default int getEntryOffset(int row) {
+        return 0;
+    }
+
+    /**
+     * Returns the class of the given row. Rows of the same class hold
+     * identical values, though identical rows need not share a class. Once a
+     * row is replaced, its old class may be taken up by different values, so
+     * classes are only comparable between changes.
+     *
+     * @param row  the row being examined.
+     * @return row class
+     */
+    default int getRowClass(int row) {
+        return row;
+    }
+
+    /**
+     * Returns a bound on the classes of the rows, every class being below it.
+     *
+     * @return row classes
+     */
+    default int getRowClasses() {
+        return getRows();
+    }
+
+    /**
+     * Replaces the values of the given row. Distributions that are views of
+     * others cannot be changed.
+     *
+     * @param row  the row being replaced.
+     * @param values  the new values of the row.
+     */
+    default void setRow(int row, double[] values) {
+        throw new UnsupportedOperationException("Distribution cannot be changed");
+    }
+}
@@ -0,0 +1,233 @@
+package com.aidanogrady.qgrady.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The DistributionBuilder takes the rows of a distribution one at a time as
+ * they are read in, and decides how the distribution is best stored once all
+ * of them have been given.
+ *
+ * Rows are held in memory as primitive arrays until they take up more than
+ * the heap limit, at which point everything given so far is written out to a
+ * temporary file and every later row is streamed straight to it, so that the
+ * finished distribution is memory-mapped rather than held on the heap.
+ * Distributions held in memory are stored sparsely or densely depending on
+ * how many of their values are zero, or as fractions if exact storage has
+ * been asked for.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class DistributionBuilder {
+
+    /**
+     * The number of doubles written to the file at a time.
+     */
+    private static final int CHUNK = 8192;
+
+    /**
+     * The number of bytes of rows held in memory before they are moved to a
+     * file.
+     */
+    private final long limit;
+
+    /**
+     * Whether values should be stored as fractions where possible.
+     */
+    private boolean exact;
+
+    /**
+     * The rows given so far while still held in memory.
+     */
+    private List<double[]> rows = new ArrayList<>();
+
+    /**
+     * The number of bytes of rows held in memory.
+     */
+    private long size;
+
+    /**
+     * The file the rows are being written to, once moved out of memory.
+     */
+    private File file;
+
+    /**
+     * The channel writing to file.
+     */
+    private FileChannel channel;
+
+    /**
+     * The buffer values pass through on their way to the file.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The position in the file of each row written, in doubles.
+     */
+    private long[] rowStarts;
+
+    /**
+     * The number of rows written to the file.
+     */
+    private int written;
+
+    /**
+     * Constructs a new builder that moves to a file once the rows take up a
+     * quarter of the maximum heap.
+     */
+    public DistributionBuilder() {
+        this(Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Constructs a new builder that moves to a file once the rows take up more
+     * than the given number of bytes. A limit of zero means every row goes
+     * straight to the file.
+     *
+     * @param limit  the number of bytes of rows allowed in memory.
+     */
+    public DistributionBuilder(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Sets whether the values should be stored as fractions over a shared
+     * denominator, should the rows stay in memory and such a denominator be
+     * found.
+     *
+     * @param exact  whether values are stored as fractions.
+     */
+    public void setExact(boolean exact) {
+        this.exact = exact;
+    }
+
+    /**
+     * Returns the storage best suited to the given matrix held in memory.
+     *
+     * @param matrix  the matrix being stored.
+     * @return distribution
+     */
+    public static Distribution of(double[][] matrix) {
+        return of(matrix, false);
+    }
+
+    /**
+     * Returns the storage best suited to the given matrix held in memory,
+     * storing its values as fractions if asked to and every value of the
+     * matrix shares a denominator.
+     *
+     * @param matrix  the matrix being stored.
+     * @param exact  whether values are stored as fractions where possible.
+     * @return distribution
+     */
+    public static Distribution of(double[][] matrix, boolean exact) {
+        if (exact) {
+            long denominator = FixedPointDistribution.denominator(matrix);
+            if (denominator > 0)
+                return new FixedPointDistribution(matrix, denominator);
+        }
+        if (SparseDistribution.density(matrix) < SparseDistribution.THRESHOLD)
+            return new SparseDistribution(matrix);
+        return new DenseDistribution(matrix);
+    }
+
+    /**
+     * Adds the given row to the distribution.
+     *
+     * @param row  the values of the row.
+     * @throws IOException if the row could not be written to the file.
+     */
+    public void addRow(double[] row) throws IOException {
+        if (channel == null) {
+            rows.add(row);
+            size += (long) row.length * Double.BYTES;
+            if (size > limit)
+                spill();
+        } else {
+            write(row);
+        }
+    }
+
+    /**
+     * Adds the given row, as read in by the parser, to the distribution.
+     *
+     * @param row  the values of the row.
+     * @throws IOException if the row could not be written to the file.
+     */
+    public void addRow(List<Double> row) throws IOException {
+        double[] values = new double[row.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row.get(i);
+        }
+        addRow(values);
+    }
+
+    /**
+     * Returns the distribution of the rows given.
+     *
+     * @return distribution
+     * @throws IOException if the file could not be mapped.
+     */
+    public Distribution build() throws IOException {
+        if (channel == null)
+            return of(rows.toArray(new double[rows.size()][]), exact);
+
+        flush();
+        channel.close();
+        return new MappedDistribution(file,
+                Arrays.copyOf(rowStarts, written + 1));
+    }
+
+    /**
+     * Moves every row held in memory out to a new temporary file.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    private void spill() throws IOException {
+        file = File.createTempFile("qgrady", ".box");
+        file.deleteOnExit();
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        buffer = ByteBuffer.allocateDirect(CHUNK * Double.BYTES);
+        rowStarts = new long[Math.max(16, rows.size() * 2)];
+        for (double[] row : rows) {
+            write(row);
+        }
+        rows = null;
+    }
+
+    /**
+     * Writes the given row to the file.
+     *
+     * @param row  the values of the row.
+     * @throws IOException if the file could not be written.
+     */
+    private void write(double[] row) throws IOException {
+        if (written + 1 >= rowStarts.length)
+            rowStarts = Arrays.copyOf(rowStarts, rowStarts.length * 2);
+        for (double value : row) {
+            if (!buffer.hasRemaining())
+                flush();
+            buffer.putDouble(value);
+        }
+        written++;
+        rowStarts[written] = rowStarts[written - 1] + row.length;
+    }
+
+    /**
+     * Writes out everything waiting in the buffer.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
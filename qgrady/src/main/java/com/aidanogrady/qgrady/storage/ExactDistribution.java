@@ -0,0 +1,28 @@
+package com.aidanogrady.qgrady.storage;
+
+/**
+ * A distribution whose values are all held exactly as fractions over a
+ * shared denominator, so that sums of its values can be found without any
+ * rounding error.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public interface ExactDistribution extends Distribution {
+
+    /**
+     * Returns the denominator shared by every value.
+     *
+     * @return denominator
+     */
+    long getDenominator();
+
+    /**
+     * Returns the numerator of the value in the given row and column.
+     *
+     * @param row  the row being examined.
+     * @param column  the column being examined.
+     * @return numerator
+     */
+    int getNumerator(int row, int column);
+}
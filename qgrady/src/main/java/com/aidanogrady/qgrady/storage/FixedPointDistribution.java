@@ -0,0 +1,188 @@
+package com.aidanogrady.qgrady.storage;
+
+/**
+ * A distribution whose values are all fractions over a shared denominator,
+ * stored as their integer numerators. Sums of probabilities can then be found
+ * exactly, so row sums and non-signalling conditions are checked without any
+ * rounding error, and each value takes half the space of a double.
+ *
+ * Like the dense distribution, every row takes up the same width and every
+ * column of a row is an entry, zero or not.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class FixedPointDistribution implements ExactDistribution {
+
+    /**
+     * The largest denominator a distribution may have. Probabilities are at
+     * most 1, so every numerator fits within an int.
+     */
+    public static final long MAX_DENOMINATOR = 1L << 30;
+
+    /**
+     * How far a value may be from a fraction for it to be taken as that
+     * fraction. This only absorbs the error of reading a decimal into a double.
+     */
+    private static final double TOLERANCE = 1e-12;
+
+    /**
+     * The numerators of the matrix, row by row.
+     */
+    private final int[] numerators;
+
+    /**
+     * The denominator shared by every value.
+     */
+    private final long denominator;
+
+    /**
+     * The space given to each row within numerators.
+     */
+    private final int width;
+
+    /**
+     * The number of values given in each row.
+     */
+    private final int[] lengths;
+
+    /**
+     * Constructs a new distribution holding the given matrix as fractions over
+     * the given denominator, which should be one found by denominator.
+     *
+     * @param matrix  the matrix being stored.
+     * @param denominator  the denominator shared by every value.
+     */
+    public FixedPointDistribution(double[][] matrix, long denominator) {
+        this.denominator = denominator;
+        int max = 0;
+        for (double[] row : matrix) {
+            max = Math.max(max, row.length);
+        }
+        width = max;
+        numerators = new int[matrix.length * width];
+        lengths = new int[matrix.length];
+        for (int i = 0; i < matrix.length; i++) {
+            lengths[i] = matrix[i].length;
+            for (int j = 0; j < lengths[i]; j++) {
+                numerators[i * width + j] =
+                        (int) Math.round(matrix[i][j] * denominator);
+            }
+        }
+    }
+
+    /**
+     * Returns the smallest denominator every value of the given matrix can be
+     * written over, or 0 if there is none within MAX_DENOMINATOR. Matrices
+     * with values outside of -1 to 1 are never given a denominator, leaving
+     * them to be reported on as they are.
+     *
+     * @param matrix  the matrix being examined.
+     * @return denominator
+     */
+    public static long denominator(double[][] matrix) {
+        long denominator = 1;
+        for (double[] row : matrix) {
+            for (double value : row) {
+                if (!(Math.abs(value) <= 1.0))
+                    return 0;
+                double scaled = value * denominator;
+                if (Math.abs(scaled - Math.rint(scaled)) <= TOLERANCE * denominator)
+                    continue;
+                long next = fraction(Math.abs(value));
+                if (next == 0)
+                    return 0;
+                denominator = denominator / gcd(denominator, next) * next;
+                if (denominator > MAX_DENOMINATOR)
+                    return 0;
+            }
+        }
+        return denominator;
+    }
+
+    /**
+     * Returns the denominator of the simplest fraction within the tolerance of
+     * the given value, found through its continued fraction, or 0 if there is
+     * none within MAX_DENOMINATOR.
+     *
+     * @param value  the value being examined.
+     * @return denominator
+     */
+    private static long fraction(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return 0;
+        long p0 = 0, q0 = 1, p1 = 1, q1 = 0;
+        double rest = value;
+        while (q1 <= MAX_DENOMINATOR) {
+            long term = (long) Math.floor(rest);
+            long p2 = term * p1 + p0;
+            long q2 = term * q1 + q0;
+            if (q2 > MAX_DENOMINATOR)
+                return 0;
+            if (Math.abs(value - (double) p2 / q2) <= TOLERANCE)
+                return q2;
+            p0 = p1;
+            q0 = q1;
+            p1 = p2;
+            q1 = q2;
+            rest = 1 / (rest - term);
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the greatest common divisor of the given numbers.
+     *
+     * @param a  the first number.
+     * @param b  the second number.
+     * @return gcd
+     */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    @Override
+    public long getDenominator() {
+        return denominator;
+    }
+
+    @Override
+    public int getNumerator(int row, int column) {
+        return numerators[row * width + column];
+    }
+
+    @Override
+    public int getRows() {
+        return lengths.length;
+    }
+
+    @Override
+    public int getRowLength(int row) {
+        return lengths[row];
+    }
+
+    @Override
+    public double get(int row, int column) {
+        return numerators[row * width + column] / (double) denominator;
+    }
+
+    @Override
+    public int getEntryCount(int row) {
+        return lengths[row];
+    }
+
+    @Override
+    public int getEntryColumn(int row, int entry) {
+        return entry;
+    }
+
+    @Override
+    public double getEntryValue(int row, int entry) {
+        return get(row, entry);
+    }
+}
@@ -0,0 +1,108 @@
+package com.aidanogrady.qgrady.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A distribution kept off the heap in a memory-mapped file, so that boxes too
+ * large to fit in memory can still be analysed and generated from. The file
+ * holds the values of each row one after another as doubles, and is mapped in
+ * segments so that files past the 2 GB limit of a single mapping can be used.
+ *
+ * Every column of a row is an entry, zero or not.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class MappedDistribution implements Distribution {
+
+    /**
+     * The number of doubles in each mapped segment, as a power of two.
+     */
+    private static final int SEGMENT_BITS = 27;
+
+    /**
+     * The mask giving the position of a double within its segment.
+     */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    /**
+     * The mapped segments of the file.
+     */
+    private final DoubleBuffer[] segments;
+
+    /**
+     * The position in the file at which each row begins, in doubles, with a
+     * trailing entry marking the end of the final row.
+     */
+    private final long[] rowStarts;
+
+    /**
+     * Constructs a new distribution by mapping the given file, which holds the
+     * rows beginning at the given positions.
+     *
+     * @param file  the file holding the values.
+     * @param rowStarts  the position of each row, with the end of the last.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public MappedDistribution(File file, long[] rowStarts) throws IOException {
+        this.rowStarts = rowStarts;
+        long size = rowStarts[rowStarts.length - 1];
+        int count = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+        segments = new DoubleBuffer[count];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            for (int i = 0; i < count; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                long length = Math.min(SEGMENT_MASK + 1, size - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        start * Double.BYTES, length * Double.BYTES)
+                        .asDoubleBuffer();
+            }
+        }
+    }
+
+    /**
+     * Returns the value at the given position in the file.
+     *
+     * @param position  the position, in doubles.
+     * @return value
+     */
+    private double read(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)]
+                .get((int) (position & SEGMENT_MASK));
+    }
+
+    @Override
+    public int getRows() {
+        return rowStarts.length - 1;
+    }
+
+    @Override
+    public int getRowLength(int row) {
+        return (int) (rowStarts[row + 1] - rowStarts[row]);
+    }
+
+    @Override
+    public double get(int row, int column) {
+        return read(rowStarts[row] + column);
+    }
+
+    @Override
+    public int getEntryCount(int row) {
+        return getRowLength(row);
+    }
+
+    @Override
+    public int getEntryColumn(int row, int entry) {
+        return entry;
+    }
+
+    @Override
+    public double getEntryValue(int row, int entry) {
+        return read(rowStarts[row] + entry);
+    }
+}
@@ -0,0 +1,139 @@
+package com.aidanogrady.qgrady.storage;
+
+/**
+ * A view over another distribution with its rows and columns looked up
+ * through a pair of index maps, such as those reordering the parties of a box
+ * or relabelling the values of an input or output. Nothing of the matrix is
+ * copied; only a map entry per row and per column is kept.
+ *
+ * Every column of a row is an entry, zero or not.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class RemappedDistribution implements Distribution {
+
+    /**
+     * The distribution being viewed.
+     */
+    private final Distribution source;
+
+    /**
+     * The row of source each row of this view is found in.
+     */
+    private final int[] rows;
+
+    /**
+     * The column of source each column of this view is found in.
+     */
+    private final int[] columns;
+
+    /**
+     * Constructs a new view of the given distribution.
+     *
+     * @param source  the distribution being viewed.
+     * @param rows  the row of source for each row of this view.
+     * @param columns  the column of source for each column of this view.
+     */
+    protected RemappedDistribution(Distribution source, int[] rows,
+                                   int[] columns) {
+        this.source = source;
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * Returns a view of the given distribution through the given maps. Views
+     * of views are collapsed into a single view of the original distribution,
+     * and views of exact distributions are themselves exact.
+     *
+     * @param source  the distribution being viewed.
+     * @param rows  the row of source for each row of the view.
+     * @param columns  the column of source for each column of the view.
+     * @return view
+     */
+    public static RemappedDistribution of(Distribution source, int[] rows,
+                                          int[] columns) {
+        if (source instanceof RemappedDistribution) {
+            RemappedDistribution view = (RemappedDistribution) source;
+            int[] composedRows = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                composedRows[i] = view.rows[rows[i]];
+            }
+            int[] composedColumns = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                composedColumns[i] = view.columns[columns[i]];
+            }
+            source = view.source;
+            rows = composedRows;
+            columns = composedColumns;
+        }
+        if (source instanceof ExactDistribution)
+            return new Exact((ExactDistribution) source, rows, columns);
+        return new RemappedDistribution(source, rows, columns);
+    }
+
+    @Override
+    public int getRows() {
+        return rows.length;
+    }
+
+    @Override
+    public int getRowLength(int row) {
+        return Math.min(columns.length, source.getRowLength(rows[row]));
+    }
+
+    @Override
+    public double get(int row, int column) {
+        return source.get(rows[row], columns[column]);
+    }
+
+    @Override
+    public int getEntryCount(int row) {
+        return getRowLength(row);
+    }
+
+    @Override
+    public int getEntryColumn(int row, int entry) {
+        return entry;
+    }
+
+    @Override
+    public double getEntryValue(int row, int entry) {
+        return get(row, entry);
+    }
+
+    /**
+     * A view of an exact distribution, which is itself exact.
+     */
+    private static class Exact extends RemappedDistribution
+            implements ExactDistribution {
+
+        /**
+         * The distribution being viewed.
+         */
+        private final ExactDistribution source;
+
+        /**
+         * Constructs a new view of the given exact distribution.
+         *
+         * @param source  the distribution being viewed.
+         * @param rows  the row of source for each row of this view.
+         * @param columns  the column of source for each column of this view.
+         */
+        private Exact(ExactDistribution source, int[] rows, int[] columns) {
+            super(source, rows, columns);
+            this.source = source;
+        }
+
+        @Override
+        public long getDenominator() {
+            return source.getDenominator();
+        }
+
+        @Override
+        public int getNumerator(int row, int column) {
+            return source.getNumerator(super.rows[row], super.columns[column]);
+        }
+    }
+}
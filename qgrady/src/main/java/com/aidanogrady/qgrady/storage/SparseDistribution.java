@@ -0,0 +1,394 @@
+package com.aidanogrady.qgrady.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A distribution stored in compressed sparse row form, holding only the
+ * non-zero values of each row along with their columns. Non-local boxes are
+ * mostly zeros, so this saves both memory and the time spent visiting cells
+ * that cannot contribute to any sum.
+ *
+ * As with the dense distribution, rows are interned into slots, with every
+ * row holding the same values sharing a slot, and the slot of a row doubling
+ * as its row class. Changing a row gives it a slot of its own, reusing a
+ * freed slot where there is one. Each slot keeps the room it was given
+ * within columns and values, and a row with more non-zero values than that
+ * is moved past the last slot, the room it leaves behind being reclaimed
+ * once the arrays would otherwise have to grow.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class SparseDistribution implements Distribution {
+
+    /**
+     * The fraction of non-zero values below which a matrix is worth storing
+     * sparsely. Each stored value costs an int and a double against a single
+     * double when dense, so sparse storage is smaller up to two thirds full.
+     */
+    public static final double THRESHOLD = 0.6;
+
+    /**
+     * The position in columns and values at which each slot begins.
+     */
+    private int[] starts;
+
+    /**
+     * The number of non-zero values of each slot.
+     */
+    private int[] entries;
+
+    /**
+     * The room given to each slot within columns and values.
+     */
+    private int[] room;
+
+    /**
+     * The position in columns and values after the room of every slot.
+     */
+    private int top;
+
+    /**
+     * The column of each non-zero value.
+     */
+    private int[] columns;
+
+    /**
+     * Each non-zero value.
+     */
+    private double[] values;
+
+    /**
+     * The number of values given in each slot, zeros included.
+     */
+    private int[] lengths;
+
+    /**
+     * The slot holding each row.
+     */
+    private final int[] slots;
+
+    /**
+     * The number of slots in use or freed.
+     */
+    private int used;
+
+    /**
+     * The slots that have been freed, the last freed on top.
+     */
+    private int[] free;
+
+    /**
+     * The number of freed slots.
+     */
+    private int freed;
+
+    /**
+     * The slot holding each distinct row, keyed by its contents.
+     */
+    private final Map<Slot, Integer> interned = new HashMap<>();
+
+    /**
+     * The number of rows sharing each slot.
+     */
+    private int[] counts;
+
+    /**
+     * Constructs a new distribution from the non-zero values of the given
+     * matrix.
+     *
+     * @param matrix  the matrix being stored.
+     */
+    public SparseDistribution(double[][] matrix) {
+        int count = 0;
+        for (double[] row : matrix) {
+            for (double value : row) {
+                if (value != 0)
+                    count++;
+            }
+        }
+
+        slots = new int[matrix.length];
+        columns = new int[count];
+        values = new double[count];
+        starts = new int[0];
+        entries = new int[0];
+        room = new int[0];
+        lengths = new int[0];
+        counts = new int[0];
+        free = new int[0];
+        for (int i = 0; i < matrix.length; i++) {
+            slots[i] = store(matrix[i]);
+        }
+        resize(used);
+        if (top < count) {
+            columns = Arrays.copyOf(columns, top);
+            values = Arrays.copyOf(values, top);
+        }
+    }
+
+    /**
+     * Returns the fraction of the values of the given matrix that are
+     * non-zero.
+     *
+     * @param matrix  the matrix being examined.
+     * @return density
+     */
+    public static double density(double[][] matrix) {
+        long cells = 0;
+        long count = 0;
+        for (double[] row : matrix) {
+            cells += row.length;
+            for (double value : row) {
+                if (value != 0)
+                    count++;
+            }
+        }
+        return cells == 0 ? 1.0 : (double) count / cells;
+    }
+
+    /**
+     * Writes the non-zero values of the given row to a freed slot with room
+     * for them, or else past the last slot, and interns them, returning the
+     * slot of an identical row if there is one, or else taking the slot
+     * written to into use.
+     *
+     * @param row  the values of the row.
+     * @return slot
+     */
+    private int store(double[] row) {
+        int count = 0;
+        for (double value : row) {
+            if (value != 0)
+                count++;
+        }
+
+        int target = -1;
+        for (int i = freed - 1; i >= 0 && target < 0; i--) {
+            if (room[free[i]] >= count) {
+                target = free[i];
+                free[i] = free[--freed];
+            }
+        }
+        boolean moved = target < 0;
+        if (moved) {
+            if (freed > 0) {
+                // No freed slot has the room, so one gives its room up.
+                target = free[--freed];
+                room[target] = 0;
+            } else {
+                // There are never more slots in use than rows, and a slot
+                // shared by many rows is only left behind once one changes.
+                if (used == lengths.length)
+                    resize(Math.min(Math.max(used * 2, 1), slots.length));
+                target = used;
+            }
+            if (top + count > columns.length)
+                compact(count);
+            starts[target] = top;
+        }
+
+        int entry = starts[target];
+        for (int j = 0; j < row.length; j++) {
+            if (row[j] != 0) {
+                columns[entry] = j;
+                values[entry] = row[j];
+                entry++;
+            }
+        }
+        entries[target] = count;
+        lengths[target] = row.length;
+
+        Slot slot = new Slot(target);
+        Integer existing = interned.get(slot);
+        if (existing != null) {
+            counts[existing]++;
+            if (target < used)
+                free[freed++] = target;
+            return existing;
+        }
+        interned.put(slot, target);
+        counts[target] = 1;
+        if (moved) {
+            room[target] = count;
+            top += count;
+        }
+        if (target == used)
+            used++;
+        return target;
+    }
+
+    /**
+     * Gives room for the given number of slots, which must be no fewer than
+     * are in use or freed.
+     *
+     * @param capacity  the number of slots there is room for.
+     */
+    private void resize(int capacity) {
+        if (capacity == lengths.length)
+            return;
+        starts = Arrays.copyOf(starts, capacity);
+        entries = Arrays.copyOf(entries, capacity);
+        room = Arrays.copyOf(room, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        free = Arrays.copyOf(free, capacity);
+    }
+
+    /**
+     * Moves the values of every slot in use next to one another, into arrays
+     * with room for at least the given number of values more. Freed slots
+     * give up their room.
+     *
+     * @param extra  the number of values more there must be room for.
+     */
+    private void compact(int extra) {
+        int live = 0;
+        for (int i = 0; i < used; i++) {
+            if (counts[i] > 0)
+                live += entries[i];
+        }
+        int size = Math.max(columns.length, (live + extra) * 3 / 2);
+        int[] newColumns = new int[size];
+        double[] newValues = new double[size];
+        top = 0;
+        for (int i = 0; i < used; i++) {
+            if (counts[i] > 0) {
+                System.arraycopy(columns, starts[i], newColumns, top,
+                        entries[i]);
+                System.arraycopy(values, starts[i], newValues, top,
+                        entries[i]);
+                starts[i] = top;
+                room[i] = entries[i];
+                top += entries[i];
+            } else {
+                room[i] = 0;
+            }
+        }
+        columns = newColumns;
+        values = newValues;
+    }
+
+    @Override
+    public int getRows() {
+        return slots.length;
+    }
+
+    @Override
+    public int getRowLength(int row) {
+        return lengths[slots[row]];
+    }
+
+    @Override
+    public double get(int row, int column) {
+        int slot = slots[row];
+        int entry = Arrays.binarySearch(columns, starts[slot],
+                starts[slot] + entries[slot], column);
+        return entry < 0 ? 0.0 : values[entry];
+    }
+
+    @Override
+    public int getEntryCount(int row) {
+        return entries[slots[row]];
+    }
+
+    @Override
+    public int getEntryColumn(int row, int entry) {
+        return columns[starts[slots[row]] + entry];
+    }
+
+    @Override
+    public double getEntryValue(int row, int entry) {
+        return values[starts[slots[row]] + entry];
+    }
+
+    @Override
+    public double[] getEntryArray(int row) {
+        return values;
+    }
+
+    @Override
+    public int getEntryOffset(int row) {
+        return starts[slots[row]];
+    }
+
+    @Override
+    public int getRowClass(int row) {
+        return slots[row];
+    }
+
+    @Override
+    public int getRowClasses() {
+        return used;
+    }
+
+    @Override
+    public void setRow(int row, double[] values) {
+        int old = slots[row];
+        if (--counts[old] == 0) {
+            interned.remove(new Slot(old));
+            free[freed++] = old;
+        }
+        slots[row] = store(values);
+    }
+
+    /**
+     * A key for a slot in the intern table, being equal to another slot
+     * holding the same values.
+     */
+    private class Slot {
+
+        /**
+         * The slot this key stands for.
+         */
+        private final int slot;
+
+        /**
+         * The hash of the slot's values.
+         */
+        private final int hash;
+
+        /**
+         * Constructs a new key for the given slot.
+         *
+         * @param slot  the slot of the key.
+         */
+        private Slot(int slot) {
+            this.slot = slot;
+            int hash = lengths[slot];
+            for (int i = starts[slot]; i < starts[slot] + entries[slot]; i++) {
+                long bits = Double.doubleToLongBits(values[i]);
+                hash = 31 * (31 * hash + columns[i])
+                        + (int) (bits ^ (bits >>> 32));
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Slot))
+                return false;
+            Slot other = (Slot) o;
+            int start = starts[slot];
+            int otherStart = starts[other.slot];
+            int count = entries[slot];
+            if (hash != other.hash || lengths[slot] != lengths[other.slot]
+                    || count != entries[other.slot])
+                return false;
+            for (int i = 0; i < count; i++) {
+                long a = Double.doubleToLongBits(values[start + i]);
+                long b = Double.doubleToLongBits(values[otherStart + i]);
+                if (columns[start + i] != columns[otherStart + i] || a != b)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
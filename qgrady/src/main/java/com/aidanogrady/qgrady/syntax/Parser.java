@@ -9,6 +9,7 @@ import java_cup.runtime.*;
 import java.util.List;
 import java.util.ArrayList;
 import com.aidanogrady.qgrady.Box;
+import com.aidanogrady.qgrady.storage.DistributionBuilder;
 import java_cup.runtime.XMLElement;
 
 /** CUP v0.11b 20150326 (SVN rev 63) generated parser.
@@ -172,6 +173,27 @@ public class Parser extends java_cup.runtime.lr_parser {
         System.exit(1);
     }
 
+    /*
+     * The builder the rows of the distribution are given to as they are read,
+     * so that the distribution never has to be held as a list of Doubles.
+     */
+    private DistributionBuilder builder = new DistributionBuilder();
+
+    /*
+     * Change the builder the rows of the distribution are given to, such as
+     * one that writes them straight to a memory-mapped file.
+     */
+    public void setBuilder(DistributionBuilder builder) {
+        this.builder = builder;
+    }
+
+    /*
+     * Returns the builder the rows of the distribution are given to.
+     */
+    public DistributionBuilder getBuilder() {
+        return builder;
+    }
+
 
 /** Cup generated class to encapsulate user supplied action code.*/
 @SuppressWarnings({"rawtypes", "unchecked", "unused"})
@@ -215,8 +237,8 @@ class CUP$Parser$actions {
 		List<String> o = (List<String>)((java_cup.runtime.Symbol) CUP$Parser$stack.elementAt(CUP$Parser$top-3)).value;
 		int lleft = ((java_cup.runtime.Symbol)CUP$Parser$stack.elementAt(CUP$Parser$top-1)).left;
 		int lright = ((java_cup.runtime.Symbol)CUP$Parser$stack.elementAt(CUP$Parser$top-1)).right;
-		List<List<Double>> l = (List<List<Double>>)((java_cup.runtime.Symbol) CUP$Parser$stack.elementAt(CUP$Parser$top-1)).value;
-		 RESULT = new Box(Box.convertList(l), i, o, ir, or); 
+		DistributionBuilder l = (DistributionBuilder)((java_cup.runtime.Symbol) CUP$Parser$stack.elementAt(CUP$Parser$top-1)).value;
+		 RESULT = new Box(l.build(), i, o, ir, or); 
               CUP$Parser$result = parser.getSymbolFactory().newSymbol("box",0, ((java_cup.runtime.Symbol)CUP$Parser$stack.elementAt(CUP$Parser$top-7)), ((java_cup.runtime.Symbol)CUP$Parser$stack.peek()), RESULT);
             }
           return CUP$Parser$result;
@@ -313,14 +335,14 @@ class CUP$Parser$actions {
           /*. . . . . . . . . . . . . . . . . . . .*/
           case 8: // list ::= list row 
             {
-              List<List<Double>> RESULT =null;
+              DistributionBuilder RESULT =null;
 		int lleft = ((java_cup.runtime.Symbol)CUP$Parser$stack.elementAt(CUP$Parser$top-1)).left;
 		int lright = ((java_cup.runtime.Symbol)CUP$Parser$stack.elementAt(CUP$Parser$top-1)).right;
-		List<List<Double>> l = (List<List<Double>>)((java_cup.runtime.Symbol) CUP$Parser$stack.elementAt(CUP$Parser$top-1)).value;
+		DistributionBuilder l = (DistributionBuilder)((java_cup.runtime.Symbol) CUP$Parser$stack.elementAt(CUP$Parser$top-1)).value;
 		int rleft = ((java_cup.runtime.Symbol)CUP$Parser$stack.peek()).left;
 		int rright = ((java_cup.runtime.Symbol)CUP$Parser$stack.peek()).right;
 		List<Double> r = (List<Double>)((java_cup.runtime.Symbol) CUP$Parser$stack.peek()).value;
-		 l.add(r); RESULT = l; 
+		 l.addRow(r); RESULT = l; 
               CUP$Parser$result = parser.getSymbolFactory().newSymbol("list",4, ((java_cup.runtime.Symbol)CUP$Parser$stack.elementAt(CUP$Parser$top-1)), ((java_cup.runtime.Symbol)CUP$Parser$stack.peek()), RESULT);
             }
           return CUP$Parser$result;
@@ -328,8 +350,8 @@ class CUP$Parser$actions {
           /*. . . . . . . . . . . . . . . . . . . .*/
           case 9: // list ::= 
             {
-              List<List<Double>> RESULT =null;
-		 RESULT = new ArrayList<List<Double>>(); 
+              DistributionBuilder RESULT =null;
+		 RESULT = parser.getBuilder(); 
               CUP$Parser$result = parser.getSymbolFactory().newSymbol("list",4, ((java_cup.runtime.Symbol)CUP$Parser$stack.peek()), RESULT);
             }
           return CUP$Parser$result;
@@ -0,0 +1,110 @@
+package com.aidanogrady.qgrady.kernel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The kernel for Java 17 and later, working through each array a whole
+ * vector of values at a time using the Vector API, with a scalar loop over
+ * whatever is left at the end.
+ *
+ * Sums are kept in one partial sum per lane, added together at the end, so
+ * differ from the scalar sums by rounding alone. Dot products are kept the
+ * same way, each product being added to its lane with a fused multiply-add.
+ * Everything else is worked out value by value, exactly as the scalar kernel
+ * does.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class VectorKernel implements Kernel {
+
+    /**
+     * The widest vector of doubles the hardware supports. Initialising this
+     * fails when the incubator module is missing, so that Kernels falls back
+     * to the scalar kernel.
+     */
+    private static final VectorSpecies<Double> SPECIES =
+            DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public int outOfRange(double[] values, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, values, i);
+            VectorMask<Double> out = v.compare(VectorOperators.GT, 1.0)
+                    .or(v.compare(VectorOperators.LT, 0.0));
+            if (out.anyTrue())
+                return i + out.firstTrue();
+        }
+        for (; i < to; i++) {
+            if (values[i] > 1.0 || values[i] < 0.0)
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public double sum(double[] values, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        for (; i < bound; i += SPECIES.length()) {
+            sums = sums.add(DoubleVector.fromArray(SPECIES, values, i));
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double dot(double[] a, int aFrom, double[] b, int bFrom,
+                      int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        for (; i < bound; i += SPECIES.length()) {
+            sums = DoubleVector.fromArray(SPECIES, a, aFrom + i)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bFrom + i), sums);
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aFrom + i] * b[bFrom + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void add(double[] src, int srcFrom, double[] dst, int dstFrom,
+                    int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, dst, dstFrom + i)
+                    .add(DoubleVector.fromArray(SPECIES, src, srcFrom + i))
+                    .intoArray(dst, dstFrom + i);
+        }
+        for (; i < length; i++) {
+            dst[dstFrom + i] += src[srcFrom + i];
+        }
+    }
+
+    @Override
+    public void divide(double[] values, int from, int to, double divisor) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, values, i)
+                    .div(divisor)
+                    .intoArray(values, i);
+        }
+        for (; i < to; i++) {
+            values[i] /= divisor;
+        }
+    }
+}
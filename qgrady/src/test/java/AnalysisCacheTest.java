@@ -0,0 +1,161 @@
+import com.aidanogrady.qgrady.AnalysisCache;
+import com.aidanogrady.qgrady.Box;
+import com.aidanogrady.qgrady.exceptions.SignallingException;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit testing of AnalysisCache.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class AnalysisCacheTest {
+    private static List<String> inputs;
+    private static List<String> outputs;
+    private static double[][] pr;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() {
+        inputs = Arrays.asList("x", "y");
+        outputs = Arrays.asList("a", "b");
+        pr = new double[][] {
+                {0.5, 0, 0, 0.5},
+                {0.5, 0, 0, 0.5},
+                {0.5, 0, 0, 0.5},
+                {0, 0.5, 0.5, 0}
+        };
+    }
+
+    @Test
+    public void keyTest() {
+        Box box = new Box(pr, inputs, outputs, 2, 2);
+        Box same = new Box(pr, inputs, outputs, 2, 2);
+        String key = AnalysisCache.key(box, false);
+        assertEquals(key, AnalysisCache.key(same, false));
+        assertNotEquals(key, AnalysisCache.key(box, true));
+
+        same.setRow(3, new double[] {0.5, 0, 0, 0.5});
+        assertNotEquals(key, AnalysisCache.key(same, false));
+        Box renamed = new Box(pr, inputs, Arrays.asList("a", "c"), 2, 2);
+        assertNotEquals(key, AnalysisCache.key(renamed, false));
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        AnalysisCache cache = new AnalysisCache(folder.getRoot(),
+                AnalysisCache.DEFAULT_LIMIT);
+        Box box = new Box(pr, inputs, outputs, 2, 2);
+        String key = AnalysisCache.key(box, false);
+        assertNull(cache.get(key, box));
+
+        AnalysisCache.Analysis analysis = new AnalysisCache.Analysis();
+        analysis.getErrors().add("Row 1 does not sum to 1");
+        analysis.setSignalling(new SignallingException("Signalling found",
+                1, -1, 0, 2));
+        analysis.setLocal(false);
+        box.marginal(1);
+        cache.put(key, analysis, box);
+
+        Box fresh = new Box(pr, inputs, outputs, 2, 2);
+        AnalysisCache.Analysis found = cache.get(key, fresh);
+        assertNotNull(found);
+        assertFalse(found.isValid());
+        assertNull(found.getVariableError());
+        assertEquals(analysis.getErrors(), found.getErrors());
+        SignallingException e = found.getSignalling();
+        assertEquals(1, e.getParty());
+        assertEquals(-1, e.getGroup());
+        assertEquals(0, e.getRow());
+        assertEquals(2, e.getOtherRow());
+        assertEquals(Boolean.FALSE, found.getLocal());
+        for (int mask = 0; mask < 4; mask++) {
+            for (int i = 0; i < box.marginal(mask).getRows(); i++) {
+                for (int j = 0; j < box.marginal(mask).getRowLength(i); j++) {
+                    assertEquals(box.marginal(mask).get(i, j),
+                            fresh.marginal(mask).get(i, j), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void corruptTest() throws Exception {
+        AnalysisCache cache = new AnalysisCache(folder.getRoot(),
+                AnalysisCache.DEFAULT_LIMIT);
+        Box box = new Box(pr, inputs, outputs, 2, 2);
+        String key = AnalysisCache.key(box, false);
+        cache.put(key, new AnalysisCache.Analysis(), box);
+        File entry = new File(folder.getRoot(), key + ".entry");
+        assertTrue(entry.isFile());
+
+        java.nio.file.Files.write(entry.toPath(), new byte[] {1, 2, 3});
+        assertNull(cache.get(key, box));
+        assertFalse(entry.exists());
+    }
+
+    @Test
+    public void evictionTest() throws Exception {
+        Box box = new Box(pr, inputs, outputs, 2, 2);
+        String first = AnalysisCache.key(box, false);
+        String second = AnalysisCache.key(box, true);
+        AnalysisCache.Analysis analysis = new AnalysisCache.Analysis();
+
+        // Find the size of one entry, then allow room for only one.
+        AnalysisCache cache = new AnalysisCache(folder.getRoot(),
+                AnalysisCache.DEFAULT_LIMIT);
+        cache.put(first, analysis, box);
+        long size = new File(folder.getRoot(), first + ".entry").length();
+        cache = new AnalysisCache(folder.getRoot(), size);
+
+        new File(folder.getRoot(), first + ".entry")
+                .setLastModified(System.currentTimeMillis() - 60000);
+        cache.put(second, analysis, box);
+        assertNull(cache.get(first, box));
+        assertNotNull(cache.get(second, box));
+    }
+
+    @Test
+    public void damagedMarginalTest() throws Exception {
+        AnalysisCache cache = new AnalysisCache(folder.getRoot(),
+                AnalysisCache.DEFAULT_LIMIT);
+        Box box = new Box(pr, inputs, outputs, 2, 2);
+        String key = AnalysisCache.key(box, false);
+        File entry = new File(folder.getRoot(), key + ".entry");
+        cache.put(key, new AnalysisCache.Analysis(), box);
+        long marginals = entry.length();
+
+        // Claim the marginal is far larger than the box allows, too large
+        // to allocate at all.
+        box.marginal(1);
+        cache.put(key, new AnalysisCache.Analysis(), box);
+        try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+            file.seek(marginals + 4);
+            file.writeInt(46000);
+            file.writeInt(46000);
+        }
+        assertNull(cache.get(key, new Box(pr, inputs, outputs, 2, 2)));
+        assertFalse(entry.exists());
+    }
+
+    @Test
+    public void oversizeTest() throws Exception {
+        // No entry fits in 16 bytes, so none is written.
+        AnalysisCache cache = new AnalysisCache(folder.getRoot(), 16);
+        Box box = new Box(pr, inputs, outputs, 2, 2);
+        String key = AnalysisCache.key(box, false);
+        cache.put(key, new AnalysisCache.Analysis(), box);
+        assertFalse(new File(folder.getRoot(), key + ".entry").exists());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+}
@@ -0,0 +1,121 @@
+import com.aidanogrady.qgrady.BellExpression;
+import com.aidanogrady.qgrady.Box;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit testing of BellExpression.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class BellExpressionTest {
+    private static List<String> inputs;
+    private static List<String> outputs;
+    private static double[][] pr;
+
+    @BeforeClass
+    public static void setup() {
+        inputs = Arrays.asList("x", "y");
+        outputs = Arrays.asList("a", "b");
+        pr = new double[][] {
+                {0.5, 0, 0, 0.5},
+                {0.5, 0, 0, 0.5},
+                {0.5, 0, 0, 0.5},
+                {0, 0.5, 0.5, 0}
+        };
+    }
+
+    /**
+     * Returns the box mixing the PR box with the given weight of white noise.
+     */
+    private static Box noisy(double noise) {
+        double[][] probs = new double[4][4];
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                probs[i][j] = (1 - noise) * pr[i][j] + noise / 4;
+            }
+        }
+        return new Box(probs, inputs, outputs, 2, 2);
+    }
+
+    @Test
+    public void chshTest() {
+        BellExpression chsh = BellExpression.chsh();
+        // The PR box is stored sparsely, the noisy boxes densely.
+        assertEquals(4.0, chsh.evaluate(new Box(pr, inputs, outputs, 2, 2)), 0);
+        assertEquals(2.0, chsh.evaluate(noisy(0.5)), 1e-12);
+        assertEquals(0.0, chsh.evaluate(noisy(1)), 1e-12);
+
+        // Always outputting 0 is local, and reaches the local bound.
+        double[][] local = new double[4][4];
+        for (double[] row : local) {
+            row[0] = 1;
+        }
+        assertEquals(2.0, chsh.evaluate(new Box(local, inputs, outputs, 2, 2)),
+                0);
+    }
+
+    @Test
+    public void merminTest() {
+        double[][] probs = new double[8][8];
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                int parity = Integer.bitCount(j) % 2;
+                if (Integer.bitCount(i) == 1)
+                    probs[i][j] = parity == 0 ? 0.25 : 0;
+                else if (i == 7)
+                    probs[i][j] = parity == 1 ? 0.25 : 0;
+                else
+                    probs[i][j] = 0.125;
+            }
+        }
+        Box box = new Box(probs, Arrays.asList("x", "y", "z"),
+                Arrays.asList("a", "b", "c"), 2, 2);
+        assertEquals(4.0, BellExpression.mermin().evaluate(box), 0);
+    }
+
+    @Test
+    public void termTest() {
+        BellExpression expr = new BellExpression(2, 2, 2)
+                .add(2, new int[] {1, 1}, new int[] {0, 1})
+                .add(-1, new int[] {0, 0}, new int[] {0, 0});
+        assertEquals(0.5, expr.evaluate(new Box(pr, inputs, outputs, 2, 2)), 0);
+    }
+
+    @Test
+    public void batchTest() {
+        Random random = new Random(7);
+        List<Box> boxes = new ArrayList<>();
+        double[] noise = new double[200];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = random.nextDouble();
+            boxes.add(noisy(noise[i]));
+        }
+        BellExpression chsh = BellExpression.chsh();
+        double[] expected = chsh.evaluate(boxes, 1);
+        assertArrayEquals(expected, chsh.evaluate(boxes, 4), 0);
+        assertArrayEquals(expected,
+                chsh.evaluate(boxes.parallelStream()).toArray(), 0);
+        // White noise scales the value of the PR box down linearly.
+        for (int i = 0; i < noise.length; i++) {
+            assertEquals(4 * (1 - noise[i]), expected[i], 1e-12);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchTest() {
+        BellExpression.mermin().evaluate(new Box(pr, inputs, outputs, 2, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void correlatorTest() {
+        new BellExpression(2, 2, 3).addCorrelator(1, new int[] {0, 0});
+    }
+}
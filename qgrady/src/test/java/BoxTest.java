@@ -1,4 +1,7 @@
 import com.aidanogrady.qgrady.Box;
+import com.aidanogrady.qgrady.MixedRadixCounter;
+import com.aidanogrady.qgrady.storage.DenseDistribution;
+import com.aidanogrady.qgrady.storage.SparseDistribution;
 import org.junit.*;
 
 import java.util.ArrayList;
@@ -60,6 +63,16 @@ public class BoxTest {
         assertArrayEquals(res, pr);
     }
 
+    @Test
+    public void storageTest() {
+        // Half of the PR box is zeros, so it is stored sparsely.
+        assertTrue(box.getDistribution() instanceof SparseDistribution);
+        double[][] full = {{0.25, 0.25, 0.25, 0.25}};
+        Box dense = new Box(full, box.getInputs(), box.getOutputs(), 2, 2);
+        assertTrue(dense.getDistribution() instanceof DenseDistribution);
+        assertArrayEquals(full, dense.getProbs());
+    }
+
     @Test
     public void testInputs() {
         List<String> inputs = new ArrayList<>();
@@ -71,6 +84,16 @@ public class BoxTest {
 
     }
 
+    @Test
+    public void symbolsTest() {
+        assertSame(box.getSymbols(), box.getSymbols());
+        List<String> inputs = new ArrayList<>(box.getInputs());
+        Box copy = new Box(pr, inputs, box.getOutputs(), 2, 2);
+        inputs.set(1, "z");
+        assertEquals(1, copy.getSymbols().getId("z"));
+        assertEquals(-1, copy.getSymbols().getId("y"));
+    }
+
     @Test
     public void testOutputs() {
         List<String> outputs = new ArrayList<>();
@@ -92,6 +115,21 @@ public class BoxTest {
         }
     }
 
+    @Test
+    public void indexTest() {
+        assertEquals(4, box.getRows());
+        assertEquals(4, box.getColumns());
+        assertEquals(2, box.getInputStride(0));
+        assertEquals(1, box.getOutputStride(1));
+        assertEquals(2, box.inputIndex(new int[] {1, 0}));
+        assertEquals(3, box.outputIndex(new int[] {1, 1}));
+        for(int i = 0; i < pr.length; i++) {
+            for(int j = 0; j < pr[i].length; j++) {
+                assertEquals(pr[i][j], box.prob(i, j), 0);
+            }
+        }
+    }
+
     @Test
     public void probTestTwo() {
         for(int i = 0; i < 2; i++) {
@@ -114,4 +152,133 @@ public class BoxTest {
         assertEquals(0.0, box.normalisedProb(in, out, index), 0);
 
     }
+
+    @Test
+    public void marginalTest() {
+        // Each party alone outputs 0 and 1 equally, whatever its input.
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                assertEquals(0.5, box.marginal(1).get(i, j), 0);
+                assertEquals(0.5, box.marginal(2).get(i, j), 0);
+            }
+        }
+        assertEquals(1.0, box.marginal(0).get(0, 0), 0);
+    }
+
+    @Test
+    public void setRowTest() {
+        Box copy = new Box(pr, box.getInputs(), box.getOutputs(), 2, 2);
+        assertTrue(copy.sameRow(0, 1));
+        assertEquals(0.5, copy.marginal(1).get(1, 0), 0);
+        copy.setRow(3, new double[] {1, 0, 0, 0});
+        assertTrue(copy.sameRow(0, 1));
+        assertFalse(copy.sameRow(0, 3));
+        assertEquals(1.0, copy.prob(3, 0), 0);
+        assertEquals(0.75, copy.marginal(1).get(1, 0), 0);
+        assertEquals(0.5, box.marginal(1).get(1, 0), 0);
+    }
+
+    @Test
+    public void conditionalProbTest() {
+        // b always equals a unless both inputs are 1.
+        int[] out = {1, 1};
+        assertEquals(1.0, box.conditionalProb(3, 1, new int[] {0, 1}, out), 0);
+        assertEquals(0.0, box.conditionalProb(3, 1, new int[] {1, 1}, out), 0);
+        assertEquals(0.5, box.conditionalProb(1, 0, new int[] {1, 1}, out), 0);
+    }
+
+    @Test
+    public void conditionalTableTest() {
+        List<String> inputs = java.util.Arrays.asList("x", "y", "z");
+        List<String> outputs = java.util.Arrays.asList("a", "b", "c");
+        java.util.Random random = new java.util.Random(11);
+        double[][] probs = new double[8][27];
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 27; j++) {
+                probs[i][j] = random.nextInt(3) / 27.0;
+            }
+        }
+        Box box3 = new Box(probs, inputs, outputs, 2, 3);
+        for (int mask = 1; mask < 8; mask++) {
+            for (int index = 0; index < 3; index++) {
+                if ((mask & (1 << index)) == 0)
+                    continue;
+                for (int x = 0; x < 2; x++) {
+                    double[] table = box3.conditionalTable(mask, index, x);
+                    int others = Integer.bitCount(mask) - 1;
+                    int position = 0;
+                    MixedRadixCounter in = new MixedRadixCounter(others, 2);
+                    MixedRadixCounter out = new MixedRadixCounter(others, 3);
+                    do {
+                        do {
+                            int[] input = new int[3];
+                            int[] output = new int[3];
+                            int step = 0;
+                            for (int i = 0; i < 3; i++) {
+                                if ((mask & (1 << i)) != 0 && i != index) {
+                                    input[i] = in.digit(step);
+                                    output[i] = out.digit(step);
+                                    step++;
+                                }
+                            }
+                            input[index] = x;
+                            for (int a = 0; a < 3; a++) {
+                                output[index] = a;
+                                assertEquals(box3.conditionalProb(mask, index,
+                                        input, output), table[position++], 0);
+                            }
+                        } while (out.increment());
+                    } while (in.increment());
+                    assertEquals(table.length, position);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void permuteTest() {
+        List<String> inputs = new ArrayList<>();
+        List<String> outputs = new ArrayList<>();
+        inputs.add("x");
+        inputs.add("y");
+        inputs.add("z");
+        outputs.add("a");
+        outputs.add("b");
+        outputs.add("c");
+        double[][] probs = new double[8][8];
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                probs[i][j] = i * 8 + j;
+            }
+        }
+        Box original = new Box(probs, inputs, outputs, 2, 2);
+        Box view = original.permute(new int[] {2, 0, 1});
+        assertEquals(java.util.Arrays.asList("z", "x", "y"), view.getInputs());
+        assertEquals(java.util.Arrays.asList("c", "a", "b"), view.getOutputs());
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                int[] in = Box.intToArray(i, 3, 2);
+                int[] out = Box.intToArray(j, 3, 2);
+                int[] origIn = {in[1], in[2], in[0]};
+                int[] origOut = {out[1], out[2], out[0]};
+                assertEquals(original.prob(origIn, origOut), view.prob(in, out), 0);
+            }
+        }
+        // Putting the parties back gives the original box.
+        Box back = view.permute(new int[] {1, 2, 0});
+        assertArrayEquals(probs, back.getProbs());
+    }
+
+    @Test
+    public void relabelTest() {
+        // Flipping a turns the PR box into a == b unless x = y = 1.
+        Box flipped = box.relabelOutputs(0, new int[] {1, 0});
+        assertEquals(0.5, flipped.prob(new int[] {0, 0}, new int[] {0, 1}), 0);
+        assertEquals(0.0, flipped.prob(new int[] {0, 0}, new int[] {0, 0}), 0);
+        assertEquals(0.5, flipped.prob(new int[] {1, 1}, new int[] {0, 0}), 0);
+        Box relabelled = box.relabelInputs(1, new int[] {1, 0});
+        assertEquals(pr[1][0], relabelled.prob(0, 0), 0);
+        assertArrayEquals(pr, flipped.relabelOutputs(0, new int[] {1, 0})
+                .getProbs());
+    }
 }
@@ -0,0 +1,177 @@
+import com.aidanogrady.qgrady.storage.*;
+import org.junit.*;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit testing of the Distribution implementations.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class DistributionTest {
+    private static double[][] pr;
+
+    @BeforeClass
+    public static void setup() {
+        pr = new double[][] {
+                {0.5, 0, 0, 0.5},
+                {0.5, 0, 0, 0.5},
+                {0.5, 0, 0, 0.5},
+                {0, 0.5, 0.5, 0}
+        };
+    }
+
+    /**
+     * Checks that the given distribution holds the given matrix, both through
+     * look-ups and through its entries.
+     */
+    private static void assertHolds(double[][] matrix, Distribution dist) {
+        assertEquals(matrix.length, dist.getRows());
+        for (int i = 0; i < matrix.length; i++) {
+            assertEquals(matrix[i].length, dist.getRowLength(i));
+            double[] row = new double[matrix[i].length];
+            for (int j = 0; j < matrix[i].length; j++) {
+                assertEquals(matrix[i][j], dist.get(i, j), 0);
+            }
+            for (int j = 0; j < dist.getEntryCount(i); j++) {
+                row[dist.getEntryColumn(i, j)] = dist.getEntryValue(i, j);
+            }
+            assertArrayEquals(matrix[i], row, 0);
+        }
+    }
+
+    @Test
+    public void denseTest() {
+        assertHolds(pr, new DenseDistribution(pr));
+    }
+
+    @Test
+    public void sparseTest() {
+        SparseDistribution sparse = new SparseDistribution(pr);
+        assertHolds(pr, sparse);
+        assertEquals(2, sparse.getEntryCount(0));
+        assertEquals(3, sparse.getEntryColumn(0, 1));
+    }
+
+    @Test
+    public void raggedTest() {
+        double[][] ragged = {{0.5, 0.5}, {1.0}, {0.25, 0, 0.75}};
+        assertHolds(ragged, new DenseDistribution(ragged));
+        assertHolds(ragged, new SparseDistribution(ragged));
+    }
+
+    @Test
+    public void builderTest() throws IOException {
+        DistributionBuilder builder = new DistributionBuilder();
+        for (double[] row : pr) {
+            builder.addRow(row);
+        }
+        Distribution dist = builder.build();
+        assertTrue(dist instanceof SparseDistribution);
+        assertHolds(pr, dist);
+    }
+
+    @Test
+    public void mappedTest() throws IOException {
+        // A limit of zero sends every row straight to the file.
+        DistributionBuilder builder = new DistributionBuilder(0);
+        for (double[] row : pr) {
+            builder.addRow(row);
+        }
+        Distribution dist = builder.build();
+        assertTrue(dist instanceof MappedDistribution);
+        assertHolds(pr, dist);
+    }
+
+    @Test
+    public void spillTest() throws IOException {
+        // Two rows fit in memory before the rest are moved to the file.
+        DistributionBuilder builder = new DistributionBuilder(64);
+        for (double[] row : pr) {
+            builder.addRow(row);
+        }
+        Distribution dist = builder.build();
+        assertTrue(dist instanceof MappedDistribution);
+        assertHolds(pr, dist);
+    }
+
+    @Test
+    public void internTest() {
+        Distribution[] dists = {new DenseDistribution(pr),
+                new SparseDistribution(pr)};
+        for (Distribution dist : dists) {
+            assertEquals(2, dist.getRowClasses());
+            assertEquals(dist.getRowClass(0), dist.getRowClass(2));
+            assertNotEquals(dist.getRowClass(0), dist.getRowClass(3));
+        }
+    }
+
+    @Test
+    public void setRowTest() {
+        double[][] changed = {pr[0], {0, 0.5, 0.5, 0}, pr[2], pr[3]};
+        Distribution[] dists = {new DenseDistribution(pr),
+                new SparseDistribution(pr)};
+        for (Distribution dist : dists) {
+            dist.setRow(1, changed[1].clone());
+            assertHolds(changed, dist);
+            assertEquals(dist.getRowClass(1), dist.getRowClass(3));
+            assertEquals(dist.getRowClass(0), dist.getRowClass(2));
+
+            // Rows that no longer match move to classes of their own.
+            dist.setRow(0, new double[] {1, 0, 0, 0});
+            dist.setRow(2, new double[] {0, 0, 0, 1});
+            assertNotEquals(dist.getRowClass(0), dist.getRowClass(2));
+            assertEquals(1.0, dist.get(2, 3), 0);
+            assertEquals(0.5, dist.get(1, 1), 0);
+        }
+    }
+
+    @Test
+    public void slotReuseTest() {
+        // Rows of varying density, many of them repeated, edited at random. Freed slots are reused, so there are never more classes
+        // than rows.
+        Random random = new Random(7);
+        double[][] matrix = new double[12][];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = randomRow(random);
+        }
+        Distribution[] dists = {new DenseDistribution(matrix),
+                new SparseDistribution(matrix)};
+        for (Distribution dist : dists) {
+            double[][] expected = new double[matrix.length][];
+            for (int i = 0; i < matrix.length; i++) {
+                expected[i] = matrix[i].clone();
+            }
+            for (int n = 0; n < 500; n++) {
+                int row = random.nextInt(expected.length);
+                expected[row] = random.nextBoolean()
+                        ? expected[random.nextInt(expected.length)].clone()
+                        : randomRow(random);
+                dist.setRow(row, expected[row].clone());
+                assertTrue(dist.getRowClasses() <= expected.length);
+            }
+            assertHolds(expected, dist);
+            for (int i = 0; i < expected.length; i++) {
+                for (int j = 0; j < expected.length; j++) {
+                    if (dist.getRowClass(i) == dist.getRowClass(j))
+                        assertArrayEquals(expected[i], expected[j], 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a row of four values, each of them 0, 0.25 or 0.5.
+     */
+    private static double[] randomRow(Random random) {
+        double[] row = new double[4];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = random.nextInt(3) * 0.25;
+        }
+        return row;
+    }
+}
@@ -0,0 +1,120 @@
+import com.aidanogrady.qgrady.Box;
+import com.aidanogrady.qgrady.FileGenerator;
+import com.aidanogrady.qgrady.PrismMacros;
+import com.aidanogrady.qgrady.syntax.Lexer;
+import com.aidanogrady.qgrady.syntax.Parser;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit testing of FileGenerator.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class FileGeneratorTest {
+    private static Box box;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() {
+        // A tripartite box, so that groups of two outputs are normalised.
+        double[][] probs = new double[8][8];
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                probs[i][j] = Integer.bitCount(j) % 2 == Integer.bitCount(i) % 2
+                        ? 0.25 : 0;
+            }
+        }
+        List<String> inputs = Arrays.asList("x", "y", "z");
+        List<String> outputs = Arrays.asList("a", "b", "c");
+        box = new Box(probs, inputs, outputs, 2, 2);
+    }
+
+    /**
+     * Returns the model as written by generateLines and write.
+     */
+    private String written() throws Exception {
+        File dest = folder.newFile("box.prism");
+        FileGenerator gen = new FileGenerator(box, dest);
+        gen.generateLines();
+        gen.write();
+        return new String(Files.readAllBytes(dest.toPath()),
+                StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void streamTest() throws Exception {
+        String expected = written();
+        assertTrue(expected.startsWith(PrismMacros.MODEL_TYPE));
+
+        StringWriter writer = new StringWriter();
+        new FileGenerator(box, null).generate(writer);
+        assertEquals(expected, writer.toString());
+
+        File dest = folder.newFile("streamed.prism");
+        new FileGenerator(box, dest).stream();
+        assertEquals(expected, new String(Files.readAllBytes(dest.toPath()),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void parallelTest() throws Exception {
+        String expected = written();
+        for (int threads = 2; threads <= 8; threads *= 2) {
+            StringWriter writer = new StringWriter();
+            FileGenerator gen = new FileGenerator(box, null);
+            gen.setThreads(threads);
+            gen.generate(writer);
+            assertEquals(expected, writer.toString());
+        }
+    }
+
+    @Test
+    public void normalisedTest() throws Exception {
+        // With y = 0, z = 1, b = 0 and c = 1 known, the parity of the outputs
+        // only matches that of the inputs when a is equal to x.
+        String model = written();
+        for (int x = 0; x < 2; x++) {
+            String guard = PrismMacros.listToString(Arrays.asList(
+                    PrismMacros.isEqual("y", 0), PrismMacros.isEqual("z", 1),
+                    PrismMacros.isEqual("ready", true),
+                    PrismMacros.isEqual("a", -1), PrismMacros.isEqual("b", 0),
+                    PrismMacros.isEqual("c", 1)), '&');
+            String action = PrismMacros.listToString(Arrays.asList(
+                    PrismMacros.assign("ready", false),
+                    PrismMacros.assign("a", x)), '&');
+            String line = PrismMacros.command("x" + x, guard,
+                    PrismMacros.prob(1.0, action));
+            assertTrue(line, model.contains(line + System.lineSeparator()));
+        }
+    }
+
+    @Test
+    public void goldenTest() throws Exception {
+        // The model of the four-party sample, as generated before the
+        // normalisation orderings were built directly, pins down their order.
+        Parser parser = new Parser(new Lexer(
+                new FileReader("files/quadpartite.qgrady")));
+        Box quad = (Box) parser.parse().value;
+        StringWriter writer = new StringWriter();
+        new FileGenerator(quad, null).generate(writer);
+        String expected = new String(Files.readAllBytes(
+                new File("src/test/resources/quadpartite.prism").toPath()),
+                StandardCharsets.UTF_8);
+        assertEquals(expected,
+                writer.toString().replace(System.lineSeparator(), "\n"));
+    }
+}
@@ -0,0 +1,105 @@
+import com.aidanogrady.qgrady.Box;
+import com.aidanogrady.qgrady.IncrementalValidator;
+import com.aidanogrady.qgrady.SemanticAnalyser;
+import com.aidanogrady.qgrady.exceptions.SignallingException;
+import org.junit.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit testing of IncrementalValidator against checking in full.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class IncrementalValidatorTest {
+    private static List<String> inputs;
+    private static List<String> outputs;
+
+    @BeforeClass
+    public static void setup() {
+        inputs = Arrays.asList("x", "y", "z");
+        outputs = Arrays.asList("a", "b", "c");
+    }
+
+    /**
+     * Returns the exception thrown by checking the box in full, or null.
+     */
+    private static SignallingException signalling(Box box) {
+        try {
+            SemanticAnalyser.nonSignalling(box);
+            return null;
+        } catch (SignallingException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Checks that the validator agrees with checking its box in full.
+     */
+    private static void assertAgrees(Box box, IncrementalValidator validator) {
+        assertEquals(SemanticAnalyser.validateDistribution(box),
+                validator.getErrors());
+        SignallingException expected = signalling(box);
+        assertEquals(expected == null, validator.isNonSignalling());
+        try {
+            validator.nonSignalling();
+            assertNull(expected);
+        } catch (SignallingException e) {
+            assertNotNull(expected);
+            assertEquals(expected.getParty(), e.getParty());
+            assertEquals(expected.getRow(), e.getRow());
+            assertEquals(expected.getOtherRow(), e.getOtherRow());
+        }
+    }
+
+    @Test
+    public void setRowTest() {
+        double[][] uniform = new double[27][8];
+        for (double[] row : uniform) {
+            Arrays.fill(row, 0.125);
+        }
+        Box box = new Box(uniform, inputs, outputs, 3, 2);
+        IncrementalValidator validator = new IncrementalValidator(box);
+        assertTrue(validator.getErrors().isEmpty());
+        assertTrue(validator.isNonSignalling());
+
+        double[] skewed = {0.25, 0, 0.125, 0.125, 0.125, 0.125, 0.125, 0.125};
+        validator.setRow(13, skewed);
+        assertAgrees(box, validator);
+        assertFalse(validator.isNonSignalling());
+
+        validator.setRow(5, new double[] {0.5, 1.5, 0});
+        assertAgrees(box, validator);
+        assertEquals(3, validator.getErrors().size());
+
+        // Putting every row back leaves nothing to report.
+        validator.setRow(13, uniform[13]);
+        validator.setRow(5, uniform[5]);
+        assertTrue(validator.getErrors().isEmpty());
+        assertTrue(validator.isNonSignalling());
+    }
+
+    @Test
+    public void randomTest() {
+        Random random = new Random(7);
+        double[][] local = new double[27][8];
+        for (int i = 0; i < 27; i++) {
+            local[i][i % 8] = 1;
+        }
+        Box box = new Box(local, inputs, outputs, 3, 2);
+        IncrementalValidator validator = new IncrementalValidator(box);
+        assertAgrees(box, validator);
+        for (int n = 0; n < 200; n++) {
+            double[] row = new double[8];
+            row[random.nextInt(8)] = 0.5;
+            row[random.nextInt(8)] += 0.5;
+            validator.setRow(random.nextInt(27), row);
+            assertAgrees(box, validator);
+        }
+    }
+}
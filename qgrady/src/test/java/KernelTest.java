@@ -0,0 +1,98 @@
+import com.aidanogrady.qgrady.kernel.Kernel;
+import com.aidanogrady.qgrady.kernel.Kernels;
+import com.aidanogrady.qgrady.kernel.ScalarKernel;
+import org.junit.*;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit testing of the kernel chosen for the running JVM against the scalar
+ * kernel.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class KernelTest {
+    private static Kernel scalar;
+    private static Kernel kernel;
+    private static double[] values;
+
+    @BeforeClass
+    public static void setup() {
+        scalar = new ScalarKernel();
+        kernel = Kernels.get();
+        Random random = new Random(42);
+        values = new double[1037];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble();
+        }
+    }
+
+    @Test
+    public void kernelTest() {
+        // The vector build runs these tests again with the vector kernel
+        // asked for, which must then be the one loaded.
+        if ("vector".equals(System.getProperty("qgrady.kernel")))
+            assertEquals("com.aidanogrady.qgrady.kernel.VectorKernel",
+                    kernel.getClass().getName());
+    }
+
+    @Test
+    public void outOfRangeTest() {
+        assertEquals(-1, kernel.outOfRange(values, 0, values.length));
+        double[] copy = values.clone();
+        copy[700] = 1.5;
+        copy[1030] = -0.5;
+        assertEquals(700, kernel.outOfRange(copy, 3, copy.length));
+        assertEquals(1030, kernel.outOfRange(copy, 701, copy.length));
+        assertEquals(-1, kernel.outOfRange(copy, 701, 1030));
+        copy[5] = Double.NaN;
+        assertEquals(-1, kernel.outOfRange(copy, 0, 10));
+    }
+
+    @Test
+    public void sumTest() {
+        for (int to = 0; to < 40; to++) {
+            double expected = scalar.sum(values, 1, 1 + to);
+            assertEquals(expected, kernel.sum(values, 1, 1 + to),
+                    Kernel.tolerance(to) * expected);
+        }
+        double expected = scalar.sum(values, 0, values.length);
+        assertEquals(expected, kernel.sum(values, 0, values.length),
+                Kernel.tolerance(values.length) * expected);
+    }
+
+    @Test
+    public void dotTest() {
+        for (int length = 0; length < 40; length++) {
+            double expected = scalar.dot(values, 2, values, 5, length);
+            assertEquals(expected, kernel.dot(values, 2, values, 5, length),
+                    Kernel.tolerance(length + 1) * expected);
+        }
+        double expected = scalar.dot(values, 0, values, 0, values.length);
+        assertEquals(expected, kernel.dot(values, 0, values, 0, values.length),
+                Kernel.tolerance(values.length + 1) * expected);
+    }
+
+    @Test
+    public void addTest() {
+        double[] expected = new double[values.length];
+        double[] actual = new double[values.length];
+        scalar.add(values, 5, expected, 3, 1000);
+        kernel.add(values, 5, actual, 3, 1000);
+        scalar.add(values, 0, expected, 0, 13);
+        kernel.add(values, 0, actual, 0, 13);
+        assertArrayEquals(expected, actual, 0);
+    }
+
+    @Test
+    public void divideTest() {
+        double[] expected = values.clone();
+        double[] actual = values.clone();
+        scalar.divide(expected, 7, 1001, 3);
+        kernel.divide(actual, 7, 1001, 3);
+        assertArrayEquals(expected, actual, 0);
+    }
+}
@@ -0,0 +1,48 @@
+import com.aidanogrady.qgrady.Box;
+import com.aidanogrady.qgrady.MixedRadixCounter;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit testing of MixedRadixCounter methods.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class MixedRadixCounterTest {
+
+    @Test
+    public void matchesIntToArrayTest() {
+        MixedRadixCounter counter = new MixedRadixCounter(3, 3);
+        int count = 0;
+        do {
+            assertArrayEquals(Box.intToArray(count, 3, 3), counter.digits());
+            assertEquals(count, counter.index());
+            count++;
+        } while (counter.increment());
+        assertEquals(27, count);
+        assertEquals(0, counter.index());
+        assertArrayEquals(new int[] {0, 0, 0}, counter.digits());
+    }
+
+    @Test
+    public void weightsTest() {
+        // Two digits of bases 2 and 3 following the strides 10 and 1.
+        MixedRadixCounter counter = new MixedRadixCounter(
+                new int[] {2, 3}, new int[] {10, 1});
+        int[] expected = {0, 1, 2, 10, 11, 12};
+        for (int value : expected) {
+            assertEquals(value, counter.index());
+            counter.increment();
+        }
+        assertEquals(0, counter.index());
+    }
+
+    @Test
+    public void emptyTest() {
+        MixedRadixCounter counter = new MixedRadixCounter(0, 2);
+        assertEquals(0, counter.index());
+        assertFalse(counter.increment());
+    }
+}
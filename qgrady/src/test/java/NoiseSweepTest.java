@@ -0,0 +1,109 @@
+import com.aidanogrady.qgrady.BellExpression;
+import com.aidanogrady.qgrady.Box;
+import com.aidanogrady.qgrady.NoiseSweep;
+import com.aidanogrady.qgrady.SemanticAnalyser;
+import org.junit.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit testing of NoiseSweep against building each mixed box.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class NoiseSweepTest {
+    private static List<String> inputs;
+    private static List<String> outputs;
+    private static double[][] pr;
+
+    @BeforeClass
+    public static void setup() {
+        inputs = Arrays.asList("x", "y");
+        outputs = Arrays.asList("a", "b");
+        pr = new double[][] {
+                {0.5, 0, 0, 0.5},
+                {0.5, 0, 0, 0.5},
+                {0.5, 0, 0, 0.5},
+                {0, 0.5, 0.5, 0}
+        };
+    }
+
+    /**
+     * Returns the given matrix mixed with white noise as a box.
+     */
+    private static Box mixed(double[][] matrix, double visibility) {
+        double[][] probs = new double[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            probs[i] = new double[matrix[i].length];
+            for (int j = 0; j < matrix[i].length; j++) {
+                probs[i][j] = visibility * matrix[i][j]
+                        + (1 - visibility) / matrix[i].length;
+            }
+        }
+        return new Box(probs, inputs, outputs, 2, 2);
+    }
+
+    @Test
+    public void prSweepTest() {
+        BellExpression chsh = BellExpression.chsh();
+        NoiseSweep sweep = new NoiseSweep(new Box(pr, inputs, outputs, 2, 2),
+                chsh);
+        List<NoiseSweep.Result> results = sweep.sweep(NoiseSweep.grid(10),
+                true, 4);
+        assertEquals(11, results.size());
+        for (NoiseSweep.Result r : results) {
+            Box box = mixed(pr, r.getVisibility());
+            assertTrue(r.isValid());
+            assertTrue(r.isNonSignalling());
+            assertEquals(chsh.evaluate(box), r.getValue(), 1e-12);
+            assertEquals(SemanticAnalyser.isLocal(box), r.isLocal());
+            // The PR box stays local up to half visibility.
+            assertEquals(r.getVisibility() <= 0.5, r.isLocal());
+        }
+        assertEquals(NoiseSweep.table(results),
+                NoiseSweep.table(sweep.sweep(NoiseSweep.grid(10), true, 1)));
+    }
+
+    @Test
+    public void validitySweepTest() {
+        // A value above 1 is brought into range by enough noise.
+        double[][] high = {
+                {1.2, -0.2, 0, 0},
+                {1.2, -0.2, 0, 0},
+                {1.2, -0.2, 0, 0},
+                {1.2, -0.2, 0, 0}
+        };
+        NoiseSweep sweep = new NoiseSweep(new Box(high, inputs, outputs, 2, 2),
+                null);
+        for (NoiseSweep.Result r : sweep.sweep(NoiseSweep.grid(20), false, 1)) {
+            Box box = mixed(high, r.getVisibility());
+            assertEquals(SemanticAnalyser.validateDistribution(box).isEmpty(),
+                    r.isValid());
+            assertTrue(Double.isNaN(r.getValue()));
+            assertNull(r.isLocal());
+        }
+        assertTrue(sweep.evaluate(0.5, false).isValid());
+        assertFalse(sweep.evaluate(1.0, false).isValid());
+    }
+
+    @Test
+    public void signallingSweepTest() {
+        // b copies x, so any amount of the box signals.
+        double[][] signalling = {
+                {1, 0, 0, 0},
+                {1, 0, 0, 0},
+                {0, 1, 0, 0},
+                {0, 1, 0, 0}
+        };
+        NoiseSweep sweep = new NoiseSweep(
+                new Box(signalling, inputs, outputs, 2, 2), null);
+        assertTrue(sweep.evaluate(0, true).isNonSignalling());
+        assertTrue(sweep.evaluate(0, true).isLocal());
+        assertFalse(sweep.evaluate(0.1, true).isNonSignalling());
+        assertFalse(sweep.evaluate(0.1, true).isLocal());
+    }
+}
@@ -4,11 +4,14 @@ import com.aidanogrady.qgrady.exceptions.InvalidRowException;
 import com.aidanogrady.qgrady.exceptions.InvalidValueException;
 import com.aidanogrady.qgrady.exceptions.InvalidVariableException;
 import com.aidanogrady.qgrady.exceptions.SignallingException;
+import com.aidanogrady.qgrady.storage.DistributionBuilder;
+import com.aidanogrady.qgrady.storage.FixedPointDistribution;
 import org.junit.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -265,4 +268,184 @@ public class SemanticAnalyserTest {
             fail();
         }
     }
+
+    @Test
+    public void exactNonSignallingTest() {
+        // Non-signalling, but 0.2 + 0.4 != 0.3 + 0.3 in doubles.
+        double[][] tenths = {
+                {0.1, 0.2, 0.3, 0.4},
+                {0.1, 0.2, 0.3, 0.4},
+                {0.0, 0.3, 0.4, 0.3},
+                {0.0, 0.3, 0.4, 0.3}
+        };
+        List<String> inputs = Arrays.asList("x", "y");
+        List<String> outputs = Arrays.asList("a", "b");
+        Box box = new Box(tenths, inputs, outputs, 2, 2);
+        try {
+            SemanticAnalyser.nonSignalling(box);
+            fail();
+        } catch (SignallingException e) {
+            assertEquals(e.getMessage(), "Signalling found");
+        }
+
+        box = new Box(DistributionBuilder.of(tenths, true), inputs, outputs,
+                2, 2);
+        assertTrue(box.getDistribution() instanceof FixedPointDistribution);
+        assertEquals(10, ((FixedPointDistribution) box.getDistribution())
+                .getDenominator());
+        try {
+            SemanticAnalyser.validateValues(box);
+            SemanticAnalyser.validateRowSums(box);
+            SemanticAnalyser.nonSignalling(box);
+        } catch (Exception e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void exactRowSumTest() {
+        Box box = new Box(DistributionBuilder.of(highSum, true),
+                Arrays.asList("x", "y"), Arrays.asList("a", "b"), 2, 2);
+        try {
+            SemanticAnalyser.validateRowSums(box);
+            fail();
+        } catch (InvalidRowException e) {
+            assertEquals(e.getMessage(), "Error in row 2: Expected sum of 1.0, got 1.1");
+        }
+    }
+
+    @Test
+    public void validateDistributionTest() {
+        List<String> inputs = Arrays.asList("x", "y");
+        List<String> outputs = Arrays.asList("a", "b");
+        Box box = new Box(pr, inputs, outputs, 2, 2);
+        assertTrue(SemanticAnalyser.validateDistribution(box).isEmpty());
+
+        // Every problem is reported, not just the first.
+        double[][] broken = {
+                {0.5, 0, 0, 1.5},
+                {0.5, 0, 0},
+                {-0.5, 0, 0, 0.5},
+        };
+        box = new Box(broken, inputs, outputs, 2, 2);
+        List<String> expected = Arrays.asList(
+                "Set up has 2 inputs with range 2. Expected matrix to have 4 rows, got 3.",
+                "Error in row 0, column 3: expected between 0 and 1, got 1.5",
+                "Error in row 0: Expected sum of 1.0, got 2.0",
+                "Error in row 1: Expected 4 values, got 3",
+                "Error in row 1: Expected sum of 1.0, got 0.5",
+                "Error in row 2, column 0: expected between 0 and 1, got -0.5",
+                "Error in row 2: Expected sum of 1.0, got 0.0");
+        assertEquals(expected, SemanticAnalyser.validateDistribution(box));
+    }
+
+    @Test
+    public void parallelSignallingTest() throws SignallingException {
+        // Three parties with eight inputs, large enough to be split up.
+        double[][] uniform = new double[512][8];
+        for (double[] row : uniform) {
+            Arrays.fill(row, 0.125);
+        }
+        List<String> inputs = Arrays.asList("x", "y", "z");
+        List<String> outputs = Arrays.asList("a", "b", "c");
+        Box box = new Box(uniform, inputs, outputs, 8, 2);
+        SemanticAnalyser.nonSignalling(box, 4);
+
+        // Only the first violation, by party then row, is reported.
+        uniform[300] = new double[] {0.25, 0, 0.125, 0.125, 0.125, 0.125, 0.125, 0.125};
+        uniform[455] = new double[] {0, 0.25, 0.125, 0.125, 0.125, 0.125, 0.125, 0.125};
+        box = new Box(uniform, inputs, outputs, 8, 2);
+        for (int threads : new int[] {1, 4}) {
+            try {
+                SemanticAnalyser.nonSignalling(box, threads);
+                fail();
+            } catch (SignallingException e) {
+                assertEquals("Signalling found", e.getMessage());
+                assertEquals(0, e.getParty());
+                assertEquals(7, e.getRow());
+                assertEquals(455, e.getOtherRow());
+            }
+        }
+    }
+
+    @Test
+    public void groupSignallingTest() throws SignallingException {
+        // Each party outputs its own input, which signals nothing.
+        double[][] local = new double[8][8];
+        for (int i = 0; i < 8; i++) {
+            local[i][i] = 1;
+        }
+        List<String> inputs = Arrays.asList("x", "y", "z");
+        List<String> outputs = Arrays.asList("a", "b", "c");
+        SemanticAnalyser.nonSignallingGroups(new Box(local, inputs, outputs, 2, 2));
+
+        // Now b is 0 when x is 0 and y is 1, so x signals to y and z.
+        local[2] = new double[] {1, 0, 0, 0, 0, 0, 0, 0};
+        local[3] = new double[] {0, 1, 0, 0, 0, 0, 0, 0};
+        Box box = new Box(local, inputs, outputs, 2, 2);
+        try {
+            SemanticAnalyser.nonSignallingGroups(box);
+            fail();
+        } catch (SignallingException e) {
+            assertEquals(0, e.getParty());
+            assertEquals(6, e.getGroup());
+            assertEquals(2, e.getRow());
+            assertEquals(6, e.getOtherRow());
+        }
+    }
+
+    @Test
+    public void localityTest() {
+        List<String> inputs = Arrays.asList("x", "y");
+        List<String> outputs = Arrays.asList("a", "b");
+        assertFalse(SemanticAnalyser.isLocal(new Box(pr, inputs, outputs, 2, 2)));
+
+        // The PR box mixed with white noise is local from half noise onwards.
+        double[][] noisy = new double[4][4];
+        for (double noise : new double[] {0.45, 0.5, 0.75}) {
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 4; j++) {
+                    noisy[i][j] = (1 - noise) * pr[i][j] + noise / 4;
+                }
+            }
+            Box box = new Box(noisy, inputs, outputs, 2, 2);
+            assertEquals(noise >= 0.5, SemanticAnalyser.isLocal(box));
+        }
+    }
+
+    @Test
+    public void mixedStrategiesLocalityTest() {
+        // Any mixture of deterministic strategies of four parties is local.
+        Random random = new Random(3);
+        double[][] probs = new double[16][16];
+        for (int s = 0; s < 10; s++) {
+            int[] strategy = new int[8];
+            for (int i = 0; i < strategy.length; i++) {
+                strategy[i] = random.nextInt(2);
+            }
+            for (int row = 0; row < 16; row++) {
+                int[] in = Box.intToArray(row, 4, 2);
+                int[] out = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    out[i] = strategy[i * 2 + in[i]];
+                }
+                probs[row][Box.arrayToInt(out, 2)] += 0.1;
+            }
+        }
+        List<String> inputs = Arrays.asList("w", "x", "y", "z");
+        List<String> outputs = Arrays.asList("a", "b", "c", "d");
+        assertTrue(SemanticAnalyser.isLocal(new Box(probs, inputs, outputs, 2, 2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void localityTooLargeTest() {
+        // Four parties with ternary inputs and outputs give 6561 cells.
+        double[][] uniform = new double[81][81];
+        for (double[] row : uniform) {
+            Arrays.fill(row, 1.0 / 81);
+        }
+        List<String> inputs = Arrays.asList("w", "x", "y", "z");
+        List<String> outputs = Arrays.asList("a", "b", "c", "d");
+        SemanticAnalyser.isLocal(new Box(uniform, inputs, outputs, 3, 3));
+    }
 }
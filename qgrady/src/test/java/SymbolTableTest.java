@@ -0,0 +1,53 @@
+import com.aidanogrady.qgrady.SymbolTable;
+import org.junit.*;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * JUnit testing of SymbolTable methods.
+ *
+ * @author Aidan O'Grady
+ * @since 1.1
+ */
+public class SymbolTableTest {
+
+    @Test
+    public void internTest() {
+        SymbolTable symbols = new SymbolTable(Arrays.asList("x", "y", "x"),
+                Arrays.asList("a", "y"));
+        assertEquals(3, symbols.size());
+        assertEquals(0, symbols.getInputId(2));
+        assertEquals(1, symbols.getOutputId(1));
+        assertEquals(2, symbols.getId("a"));
+        assertEquals(-1, symbols.getId("b"));
+        assertEquals("y", symbols.getName(1));
+        assertEquals(2, symbols.getInputCount(0));
+        assertEquals(1, symbols.getOutputCount(1));
+        assertEquals(0, symbols.getOutputCount(0));
+    }
+
+    @Test
+    public void keywordTest() {
+        SymbolTable symbols = new SymbolTable(Arrays.asList("dtmc"),
+                Arrays.asList("a"));
+        assertTrue(symbols.isKeyword(0));
+        assertFalse(symbols.isKeyword(1));
+        assertTrue(SymbolTable.isKeyword("Pmax"));
+    }
+
+    @Test
+    public void matchesTest() {
+        SymbolTable symbols = new SymbolTable(Arrays.asList("x", "y", "x"),
+                Arrays.asList("a", "y"));
+        assertTrue(symbols.matches(Arrays.asList("x", "y", "x"),
+                Arrays.asList("a", "y")));
+        assertFalse(symbols.matches(Arrays.asList("x", "y", "y"),
+                Arrays.asList("a", "y")));
+        assertFalse(symbols.matches(Arrays.asList("x", "y"),
+                Arrays.asList("a", "y")));
+        assertFalse(symbols.matches(Arrays.asList("x", "y", "x"),
+                Arrays.asList("y", "a")));
+    }
+}